@@ -0,0 +1,119 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Abbreviates object IDs to unique prefixes for one response.
+ *
+ * <p>Shares the reader of the response's walk, rather than opening one per ID, and remembers the
+ * abbreviations it has computed. Abbreviating several IDs at once skips the prefix lengths at which
+ * they are known to collide with each other.
+ */
+public class Abbreviator {
+  /** Shortest abbreviation produced, as in Git. */
+  public static final int MIN_LENGTH = 7;
+
+  private final ObjectReader reader;
+  private final Map<ObjectId, AbbreviatedObjectId> abbrevs = new HashMap<>();
+
+  /** @param reader reader to resolve prefixes with; not closed by this instance. */
+  public Abbreviator(ObjectReader reader) {
+    this.reader = checkNotNull(reader, "reader");
+  }
+
+  ObjectReader getReader() {
+    return reader;
+  }
+
+  /**
+   * Abbreviate an ID.
+   *
+   * @param id object ID.
+   * @return the shortest prefix of {@code id}, of at least {@link #MIN_LENGTH} digits, that names
+   *     no other object.
+   * @throws IOException if the object database could not be read.
+   */
+  public AbbreviatedObjectId abbreviate(AnyObjectId id) throws IOException {
+    return abbreviate(id, MIN_LENGTH);
+  }
+
+  /**
+   * Abbreviate several IDs.
+   *
+   * @param ids object IDs, in any order and possibly repeated.
+   * @return the abbreviation of each distinct ID, as by {@link #abbreviate(AnyObjectId)}.
+   * @throws IOException if the object database could not be read.
+   */
+  public Map<ObjectId, AbbreviatedObjectId> abbreviateAll(Iterable<? extends AnyObjectId> ids)
+      throws IOException {
+    List<ObjectId> sorted = new ArrayList<>();
+    for (AnyObjectId id : ids) {
+      sorted.add(id.toObjectId());
+    }
+    Collections.sort(sorted);
+
+    Map<ObjectId, AbbreviatedObjectId> result = new HashMap<>();
+    String prev = null;
+    for (int i = 0; i < sorted.size(); i++) {
+      ObjectId id = sorted.get(i);
+      String name = id.name();
+      if (name.equals(prev)) {
+        continue;
+      }
+      // Neighbors in sorted order share the longest prefixes; shorter lengths are ambiguous.
+      int shared = prev != null ? commonPrefix(prev, name) : 0;
+      for (int j = i + 1; j < sorted.size(); j++) {
+        String next = sorted.get(j).name();
+        if (!next.equals(name)) {
+          shared = Math.max(shared, commonPrefix(name, next));
+          break;
+        }
+      }
+      result.put(id, abbreviate(id, Math.max(MIN_LENGTH, shared + 1)));
+      prev = name;
+    }
+    return result;
+  }
+
+  private AbbreviatedObjectId abbreviate(AnyObjectId id, int minLength) throws IOException {
+    AbbreviatedObjectId abbrev = abbrevs.get(id);
+    if (abbrev == null) {
+      abbrev = reader.abbreviate(id, minLength);
+      abbrevs.put(id.copy(), abbrev);
+    }
+    return abbrev;
+  }
+
+  private static int commonPrefix(String a, String b) {
+    int n = 0;
+    while (n < a.length() && a.charAt(n) == b.charAt(n)) {
+      n++;
+    }
+    return n;
+  }
+}
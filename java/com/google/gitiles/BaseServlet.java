@@ -22,19 +22,23 @@ import static com.google.gitiles.FormatType.TEXT;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
-import static org.eclipse.jgit.util.HttpSupport.ENCODING_GZIP;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.net.HttpHeaders;
 import com.google.gitiles.GitilesRequestFailureException.FailureReason;
 import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -44,17 +48,27 @@ import java.time.Instant;
 import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.util.StringUtils;
 
 /** Base servlet class for Gitiles servlets that serve Soy templates. */
 public abstract class BaseServlet extends HttpServlet {
   private static final long serialVersionUID = 1L;
   private static final String DATA_ATTRIBUTE = BaseServlet.class.getName() + "/Data";
+  private static final String COMPACT_PARAM = "compact";
   private static final String STREAMING_ATTRIBUTE = BaseServlet.class.getName() + "/Streaming";
+  private static final String ETAG_ATTRIBUTE = BaseServlet.class.getName() + "/ETag";
+
+  // Generation of ETag logic. Bump this only if servlet logic changes
+  // significantly enough to impact cached pages. Soy templates and
+  // configuration are automatically hashed as part of the ETag.
+  private static final int ETAG_GEN = 1;
 
   static void setNotCacheable(HttpServletResponse res) {
     res.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, max-age=0, must-revalidate");
@@ -108,6 +122,16 @@ public abstract class BaseServlet extends HttpServlet {
       res.sendError(SC_BAD_REQUEST);
       return;
     }
+    String etag = getEtag(req, format.get());
+    if (etag != null) {
+      req.setAttribute(ETAG_ATTRIBUTE, etag);
+      res.setHeader(HttpHeaders.ETAG, etag);
+      if (etagMatches(req, etag)) {
+        setCacheHeaders(req, res);
+        res.setStatus(SC_NOT_MODIFIED);
+        return;
+      }
+    }
     switch (format.get()) {
       case HTML:
         doGetHtml(req, res);
@@ -118,6 +142,9 @@ public abstract class BaseServlet extends HttpServlet {
       case JSON:
         doGetJson(req, res);
         break;
+      case RAW:
+        doGetRaw(req, res);
+        break;
       case DEFAULT:
       default:
         throw new GitilesRequestFailureException(FailureReason.UNSUPPORTED_RESPONSE_FORMAT);
@@ -140,6 +167,130 @@ public abstract class BaseServlet extends HttpServlet {
     return HTML;
   }
 
+  /**
+   * Compute the entity tag of the response to a GET request.
+   *
+   * <p>When a tag is returned, it is sent in the {@code ETag} header and a request with a matching
+   * {@code If-None-Match} header is answered with 304 Not Modified before any other work is done.
+   * The default implementation returns null, disabling conditional requests.
+   *
+   * @param req in-progress request.
+   * @param format format of the response.
+   * @return entity tag of the response, including quotes; null if unknown.
+   * @throws IOException if there was an error computing the tag.
+   */
+  @Nullable
+  protected String getEtag(HttpServletRequest req, FormatType format) throws IOException {
+    return null;
+  }
+
+  /**
+   * Compute the entity tag of a response determined entirely by the request's view.
+   *
+   * @param req in-progress request.
+   * @param format format of the response.
+   * @return entity tag, or null if the view does not name a revision.
+   * @see #newViewEtagHasher(HttpServletRequest, FormatType)
+   */
+  @Nullable
+  protected String getViewEtag(HttpServletRequest req, FormatType format) {
+    Hasher h = newViewEtagHasher(req, format);
+    return h != null ? toEtag(h) : null;
+  }
+
+  /**
+   * Start hashing the entity tag of a response determined by the request's view.
+   *
+   * <p>The hash covers the servlet, the response format and encoding, the resolved ids of the
+   * view's revisions, its path and parameters, the Gitiles configuration and, for HTML, the Soy
+   * templates. Servlets whose output also depends on other state, such as refs, should add it to
+   * the hasher before passing it to {@link #toEtag(Hasher)}.
+   *
+   * @param req in-progress request.
+   * @param format format of the response.
+   * @return hasher, or null if the view does not name a revision.
+   */
+  @Nullable
+  protected Hasher newViewEtagHasher(HttpServletRequest req, FormatType format) {
+    GitilesView view = ViewFilter.getView(req);
+    Revision rev = view.getRevision();
+    if (Revision.isNull(rev) || rev.getId() == null) {
+      return null;
+    }
+
+    Hasher h = Hashing.murmur3_128().newHasher();
+    h.putInt(ETAG_GEN);
+    putString(h, getClass().getName());
+    putString(h, format.name());
+    putString(h, ContentEncoding.negotiate(req).getName());
+    putString(h, view.getType().name());
+    putString(h, view.getHostName());
+    putString(h, view.getServletPath());
+    putString(h, view.getRepositoryName());
+    putRevision(h, rev);
+    putRevision(h, view.getOldRevision());
+    putString(h, view.getPathPart());
+    for (Map.Entry<String, String> e : view.getParameters().entries()) {
+      putString(h, e.getKey());
+      putString(h, e.getValue());
+    }
+    putString(h, getAccess(req).getConfig().toText());
+    if (format == HTML && renderer != null) {
+      h.putBytes(renderer.getTemplatesHash().asBytes());
+    }
+    return h;
+  }
+
+  /**
+   * @param h hasher started by {@link #newViewEtagHasher(HttpServletRequest, FormatType)}.
+   * @return strong entity tag from the hash.
+   */
+  protected static String toEtag(Hasher h) {
+    return '"' + h.hash().toString() + '"';
+  }
+
+  private static void putString(Hasher h, @Nullable String s) {
+    if (s != null) {
+      h.putString(s, UTF_8);
+    }
+    h.putByte((byte) 0);
+  }
+
+  private static void putRevision(Hasher h, @Nullable Revision rev) {
+    if (rev == null || Revision.isNull(rev)) {
+      h.putByte((byte) 0);
+      return;
+    }
+    putString(h, rev.getName());
+    byte[] b = new byte[Constants.OBJECT_ID_LENGTH];
+    rev.getId().copyRawTo(b, 0);
+    h.putBytes(b);
+  }
+
+  /**
+   * Check whether the client already has a representation with the given entity tag.
+   *
+   * @param req in-progress request.
+   * @param etag current entity tag of the response.
+   * @return whether any tag in the request's {@code If-None-Match} header matches.
+   */
+  protected static boolean etagMatches(HttpServletRequest req, String etag) {
+    String header = req.getHeader(HttpHeaders.IF_NONE_MATCH);
+    if (header == null) {
+      return false;
+    }
+    for (String tag : Splitter.on(',').trimResults().omitEmptyStrings().split(header)) {
+      // If-None-Match uses the weak comparison function.
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals("*") || tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Handle a GET request when the requested format type was HTML.
    *
@@ -173,6 +324,17 @@ public abstract class BaseServlet extends HttpServlet {
     throw new GitilesRequestFailureException(FailureReason.UNSUPPORTED_RESPONSE_FORMAT);
   }
 
+  /**
+   * Handle a GET request when the requested format type was raw bytes.
+   *
+   * @param req in-progress request.
+   * @param res in-progress response.
+   * @throws IOException if there was an error rendering the result.
+   */
+  protected void doGetRaw(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    throw new GitilesRequestFailureException(FailureReason.UNSUPPORTED_RESPONSE_FORMAT);
+  }
+
   protected static Map<String, Object> getData(HttpServletRequest req) {
     @SuppressWarnings("unchecked")
     Map<String, Object> data = (Map<String, Object>) req.getAttribute(DATA_ATTRIBUTE);
@@ -228,7 +390,7 @@ public abstract class BaseServlet extends HttpServlet {
       throws IOException {
     req.setAttribute(STREAMING_ATTRIBUTE, true);
     return renderer.renderHtmlStreaming(
-        res, false, templateName, startHtmlResponse(req, res, soyData));
+        res, ContentEncoding.IDENTITY, templateName, startHtmlResponse(req, res, soyData));
   }
 
   /**
@@ -238,7 +400,7 @@ public abstract class BaseServlet extends HttpServlet {
    * the point where data is to be streamed. The template before and after this placeholder is
    * rendered using the provided data map.
    *
-   * <p>The response will be gzip compressed (if the user agent supports it) to reduce bandwidth.
+   * <p>The response will be compressed (if the user agent supports it) to reduce bandwidth.
    * This may delay rendering in the browser.
    *
    * @param req in-progress request.
@@ -254,14 +416,8 @@ public abstract class BaseServlet extends HttpServlet {
       HttpServletRequest req, HttpServletResponse res, String templateName, Map<String, ?> soyData)
       throws IOException {
     req.setAttribute(STREAMING_ATTRIBUTE, true);
-    boolean gzip = false;
-    if (acceptsGzipEncoding(req)) {
-      res.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
-      res.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
-      gzip = true;
-    }
     return renderer.renderHtmlStreaming(
-        res, gzip, templateName, startHtmlResponse(req, res, soyData));
+        res, ContentEncoding.negotiate(req), templateName, startHtmlResponse(req, res, soyData));
   }
 
   private Map<String, ?> startHtmlResponse(
@@ -308,12 +464,64 @@ public abstract class BaseServlet extends HttpServlet {
     }
   }
 
-  @SuppressWarnings("unused") // Used in subclasses.
+  /** Writes a JSON value incrementally to a response. */
+  @FunctionalInterface
+  protected interface JsonStreamer {
+    /**
+     * Write exactly one top-level JSON value.
+     *
+     * @param gson configured instance, for serializing nested objects.
+     * @param out writer for the response body.
+     * @throws IOException an error occurred writing.
+     */
+    void write(Gson gson, JsonWriter out) throws IOException;
+  }
+
+  /**
+   * Render JSON to the response as it is produced.
+   *
+   * <p>Unlike {@link #renderJson(HttpServletRequest, HttpServletResponse, Object, Type)}, the
+   * response does not need to be built in memory first, so this is suitable for results of
+   * unbounded size. The output is the same as if the value were rendered with {@code renderJson}.
+   *
+   * @param req in-progress request.
+   * @param res in-progress response.
+   * @param streamer callback writing the value.
+   */
+  protected void renderJsonStreaming(
+      HttpServletRequest req, HttpServletResponse res, JsonStreamer streamer) throws IOException {
+    req.setAttribute(STREAMING_ATTRIBUTE, true);
+    setApiHeaders(req, res, JSON);
+    res.setStatus(SC_OK);
+    Gson gson = newGsonBuilder(req).create();
+    try (Writer writer = newWriter(req, res)) {
+      JsonWriter out = gson.newJsonWriter(writer);
+      streamer.write(gson, out);
+      out.flush();
+      writer.write('\n');
+    }
+  }
+
   protected GsonBuilder newGsonBuilder(HttpServletRequest req) throws IOException {
-    return new GsonBuilder()
-        .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-        .setPrettyPrinting()
-        .generateNonExecutableJson();
+    GsonBuilder gb =
+        new GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .generateNonExecutableJson();
+    if (!isCompactJson(req)) {
+      gb.setPrettyPrinting();
+    }
+    return gb;
+  }
+
+  /**
+   * @param req in-progress request.
+   * @return whether the client asked for JSON without insignificant whitespace, with {@code
+   *     compact} or {@code compact=1}.
+   */
+  protected static boolean isCompactJson(HttpServletRequest req) {
+    String compact = req.getParameter(COMPACT_PARAM);
+    return compact != null
+        && (compact.isEmpty() || Boolean.TRUE.equals(StringUtils.toBooleanOrNull(compact)));
   }
 
   /**
@@ -385,6 +593,11 @@ public abstract class BaseServlet extends HttpServlet {
           HttpHeaders.CACHE_CONTROL, "private, max-age=7200, stale-while-revalidate=604800");
       return;
     }
+    if (req.getAttribute(ETAG_ATTRIBUTE) != null) {
+      // The revision may move, but revalidating against the ETag is cheap.
+      res.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+      return;
+    }
 
     setNotCacheable(res);
   }
@@ -396,9 +609,22 @@ public abstract class BaseServlet extends HttpServlet {
     }
     res.setCharacterEncoding(UTF_8.name());
     res.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment");
+    setCorsHeaders(req, res, getAccess(req).getConfig());
+    setCacheHeaders(req, res);
+  }
 
-    GitilesAccess access = getAccess(req);
-    String[] allowOrigin = access.getConfig().getStringList("gitiles", null, "allowOriginRegex");
+  /**
+   * Set the cross-origin headers of an API response.
+   *
+   * <p>The headers depend on the request's origin, so they must be computed for every response,
+   * even one replayed from a cache.
+   *
+   * @param req in-progress request.
+   * @param res in-progress response.
+   * @param config Gitiles configuration, which may set {@code gitiles.allowOriginRegex}.
+   */
+  static void setCorsHeaders(HttpServletRequest req, HttpServletResponse res, Config config) {
+    String[] allowOrigin = config.getStringList("gitiles", null, "allowOriginRegex");
 
     if (allowOrigin.length > 0) {
       String origin = req.getHeader(HttpHeaders.ORIGIN);
@@ -413,7 +639,6 @@ public abstract class BaseServlet extends HttpServlet {
     } else {
       res.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
     }
-    setCacheHeaders(req, res);
   }
 
   protected void setApiHeaders(HttpServletRequest req, HttpServletResponse res, FormatType type)
@@ -436,39 +661,14 @@ public abstract class BaseServlet extends HttpServlet {
   }
 
   private Writer newWriter(HttpServletRequest req, HttpServletResponse res) throws IOException {
-    OutputStream out;
-    if (acceptsGzipEncoding(req)) {
-      res.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
-      res.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
-      out = new GZIPOutputStream(res.getOutputStream());
-    } else {
-      out = res.getOutputStream();
-    }
-    return newWriter(out, res);
+    return newWriter(ContentEncoding.negotiate(req).start(res, -1), res);
   }
 
   protected static boolean acceptsGzipEncoding(HttpServletRequest req) {
-    String accepts = req.getHeader(HttpHeaders.ACCEPT_ENCODING);
-    if (accepts == null) {
-      return false;
-    }
-    for (int b = 0; b < accepts.length(); ) {
-      int comma = accepts.indexOf(',', b);
-      int e = 0 <= comma ? comma : accepts.length();
-      String term = accepts.substring(b, e).trim();
-      if (term.equals(ENCODING_GZIP)) {
-        return true;
-      }
-      b = e + 1;
-    }
-    return false;
+    return ContentEncoding.negotiate(req) == ContentEncoding.GZIP;
   }
 
   protected static byte[] gzip(byte[] raw) throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
-      gz.write(raw);
-    }
-    return out.toByteArray();
+    return Gzip.compress(raw);
   }
 }
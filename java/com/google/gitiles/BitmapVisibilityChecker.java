@@ -0,0 +1,132 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.BitmapWalker;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Visibility checker that answers reachability queries using pack bitmaps.
+ *
+ * <p>The set of objects reachable from a group of starters is computed once, using the pack's
+ * reachability bitmaps for the bulk of history and walking only from tips that are not yet
+ * covered by a bitmap. The result is cached keyed on the exact list of starter ids, so all
+ * requests against the same ref database snapshot share one bitmap and each lookup is a single
+ * membership test. Any change to the refs produces a different key, and therefore a fresh bitmap.
+ * Ids a single request knows to be reachable are walked instead, without caching a bitmap.
+ *
+ * <p>Repositories without a bitmap index fall back to the walk in {@link VisibilityChecker}.
+ */
+public class BitmapVisibilityChecker extends VisibilityChecker {
+  /** Starter lists smaller than this are cheap to walk and not worth caching. */
+  private static final int MIN_CACHED_STARTERS = 2;
+
+  public static CacheBuilder<Object, Object> defaultBuilder() {
+    return CacheBuilder.newBuilder().maximumSize(64);
+  }
+
+  private final Cache<ObjectId, ReachableSet> cache;
+
+  public BitmapVisibilityChecker() {
+    this(defaultBuilder());
+  }
+
+  public BitmapVisibilityChecker(CacheBuilder<Object, Object> builder) {
+    this.cache = builder.build();
+  }
+
+  public Cache<?, ?> getCache() {
+    return cache;
+  }
+
+  @Override
+  protected boolean isReachableFrom(
+      String description, RevWalk walk, RevCommit commit, Collection<ObjectId> starters)
+      throws IOException {
+    // Lists of known reachable ids come from a single request and rarely recur, so caching their
+    // bitmaps would only evict the bitmaps of ref snapshots shared by all requests.
+    if (starters.size() < MIN_CACHED_STARTERS
+        || VisibilityCache.KNOWN_REACHABLE.equals(description)) {
+      return super.isReachableFrom(description, walk, commit, starters);
+    }
+    BitmapIndex index = walk.getObjectReader().getBitmapIndex();
+    if (index == null) {
+      return super.isReachableFrom(description, walk, commit, starters);
+    }
+
+    try {
+      return cache
+          .get(snapshotKey(starters), () -> ReachableSet.compute(walk, index, starters))
+          .contains(commit);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Compute a key identifying a list of starters.
+   *
+   * <p>Callers list refs in a stable order, so an order-sensitive digest is enough to recognize the
+   * same snapshot; a different order merely produces a cache miss.
+   */
+  private static ObjectId snapshotKey(Collection<ObjectId> starters) {
+    MessageDigest md = Constants.newMessageDigest();
+    byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+    for (ObjectId id : starters) {
+      id.copyRawTo(buf, 0);
+      md.update(buf);
+    }
+    return ObjectId.fromRaw(md.digest());
+  }
+
+  /** Immutable set of objects reachable from a snapshot of starters. */
+  private static class ReachableSet {
+    private static ReachableSet compute(
+        RevWalk walk, BitmapIndex index, Collection<ObjectId> starters) throws IOException {
+      try (ObjectWalk ow = new ObjectWalk(walk.getObjectReader())) {
+        BitmapWalker bw = new BitmapWalker(ow, index, NullProgressMonitor.INSTANCE);
+        return new ReachableSet(bw.findObjects(starters, null, true));
+      }
+    }
+
+    private final BitmapBuilder bitmap;
+
+    private ReachableSet(BitmapBuilder bitmap) {
+      this.bitmap = bitmap;
+    }
+
+    // BitmapBuilder makes no thread-safety guarantees even for reads, and instances are shared
+    // across requests.
+    private synchronized boolean contains(AnyObjectId id) {
+      return bitmap.contains(id);
+    }
+  }
+}
@@ -20,12 +20,17 @@ import static org.eclipse.jgit.lib.Constants.OBJ_COMMIT;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
-import com.google.template.soy.data.SoyListData;
-import com.google.template.soy.data.SoyMapData;
+import com.google.template.soy.data.LoggingAdvisingAppendable;
+import com.google.template.soy.jbcsrc.api.SoySauce;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
@@ -34,15 +39,10 @@ import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.util.RawParseUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import prettify.parser.Prettify;
-import syntaxhighlight.ParseResult;
 
 /** Soy data converter for git blobs. */
 public class BlobSoyData {
-  private static final Logger log = LoggerFactory.getLogger(BlobSoyData.class);
-
   /**
    * Maximum number of bytes to load from a supposed text file for display. Files larger than this
    * will be displayed as binary files, even if the contents was text. For example really big XML
@@ -57,12 +57,41 @@ public class BlobSoyData {
    */
   private static final int MAX_LINE_COUNT = 50000;
 
+  /** Number of lines rendered at a time when streaming. */
+  private static final int LINES_PER_CHUNK = 256;
+
   private final GitilesView view;
   private final ObjectReader reader;
+  private final SyntaxHighlighter highlighter;
+  @Nullable private final HighlightCache highlightCache;
 
   public BlobSoyData(ObjectReader reader, GitilesView view) {
+    this(reader, view, SyntaxHighlighter.DEFAULT);
+  }
+
+  public BlobSoyData(ObjectReader reader, GitilesView view, SyntaxHighlighter highlighter) {
+    this(reader, view, highlighter, null);
+  }
+
+  /**
+   * @param reader reader for loading blobs.
+   * @param view view being rendered.
+   * @param highlightCache cache of highlighting results, or null to highlight on every call.
+   */
+  public BlobSoyData(
+      ObjectReader reader, GitilesView view, @Nullable HighlightCache highlightCache) {
+    this(reader, view, SyntaxHighlighter.DEFAULT, highlightCache);
+  }
+
+  private BlobSoyData(
+      ObjectReader reader,
+      GitilesView view,
+      SyntaxHighlighter highlighter,
+      @Nullable HighlightCache highlightCache) {
     this.reader = reader;
     this.view = view;
+    this.highlighter = highlighter;
+    this.highlightCache = highlightCache;
   }
 
   public Map<String, Object> toSoyData(ObjectId blobId) throws MissingObjectException, IOException {
@@ -71,6 +100,77 @@ public class BlobSoyData {
 
   public Map<String, Object> toSoyData(String path, ObjectId blobId)
       throws MissingObjectException, IOException {
+    return toSoyData(path, blobId, false).soyData;
+  }
+
+  /**
+   * Convert a blob to Soy data, leaving text content to be streamed.
+   *
+   * <p>If {@link StreamingSoyData#hasLines()}, the Soy data only contains a placeholder for the
+   * lines of the blob, and the caller must render the template with {@link
+   * BaseServlet#startRenderCompressedStreamingHtml} and then call {@link
+   * StreamingSoyData#renderLines}.
+   *
+   * @param path path to the blob, used for choosing a language.
+   * @param blobId id of the blob.
+   * @return Soy data for the {@code blobDetail} template, and the lines to stream.
+   */
+  public StreamingSoyData toStreamingSoyData(String path, ObjectId blobId)
+      throws MissingObjectException, IOException {
+    return toSoyData(path, blobId, true);
+  }
+
+  /** Soy data for a blob, and the text to stream in place of its lines, if any. */
+  public static class StreamingSoyData {
+    private final Map<String, Object> soyData;
+    @Nullable private final String content;
+    @Nullable private final Highlights highlights;
+
+    private StreamingSoyData(
+        Map<String, Object> soyData, @Nullable String content, @Nullable Highlights highlights) {
+      this.soyData = soyData;
+      this.content = content;
+      this.highlights = highlights;
+    }
+
+    /** @return Soy data for the {@code blobDetail} template. */
+    public Map<String, Object> getSoyData() {
+      return Collections.unmodifiableMap(soyData);
+    }
+
+    /** @return whether there are lines to stream in place of the template's placeholder. */
+    public boolean hasLines() {
+      return content != null;
+    }
+
+    /**
+     * Render the lines of the blob with the {@code blobLines} template, a chunk at a time.
+     *
+     * @param renderer renderer for the templates.
+     * @param out writer positioned at the template's streaming placeholder.
+     */
+    public void renderLines(Renderer renderer, Writer out) throws IOException {
+      checkState(content != null, "no lines to stream");
+      LoggingAdvisingAppendable appendable = LoggingAdvisingAppendable.delegating(out);
+      SoySauce.Renderer linesRenderer = renderer.newRenderer("gitiles.blobLines");
+      LineBuilder lines =
+          new LineBuilder(
+              LINES_PER_CHUNK,
+              (start, chunk) -> {
+                if (!linesRenderer
+                    .setData(ImmutableMap.of("start", start, "lines", chunk))
+                    .renderHtml(appendable)
+                    .result()
+                    .isDone()) {
+                  throw new IOException("failed to render HTML");
+                }
+              });
+      addSpans(lines, highlights, content);
+    }
+  }
+
+  private StreamingSoyData toSoyData(String path, ObjectId blobId, boolean streamLines)
+      throws MissingObjectException, IOException {
     Map<String, Object> data = Maps.newHashMapWithExpectedSize(4);
     data.put("sha", ObjectId.toString(blobId));
 
@@ -89,8 +189,15 @@ public class BlobSoyData {
       content = null;
     }
 
+    Highlights highlights = null;
     if (content != null) {
-      data.put("lines", prettify(path, content));
+      if (streamLines) {
+        data.put("lines", ImmutableList.of());
+        data.put("streamLines", true);
+        highlights = highlight(blobId, path, content);
+      } else {
+        data.put("lines", prettify(blobId, path, content));
+      }
       if (path != null && path.endsWith(".md")) {
         data.put("docUrl", GitilesView.doc().copyFrom(view).toUrl());
       }
@@ -103,70 +210,108 @@ public class BlobSoyData {
       data.put("logUrl", GitilesView.log().copyFrom(view).toUrl());
       data.put("blameUrl", GitilesView.blame().copyFrom(view).toUrl());
     }
-    return data;
+    return new StreamingSoyData(data, highlights != null ? content : null, highlights);
   }
 
-  private SoyListData prettify(String path, String content) {
-    List<ParseResult> results = parse(path, content);
-    SoyListData lines = new SoyListData();
-    SoyListData line = new SoyListData();
-    lines.add(line);
+  private List<List<Map<String, String>>> prettify(ObjectId blobId, String path, String content)
+      throws IOException {
+    List<List<Map<String, String>>> result = new ArrayList<>();
+    LineBuilder lines = new LineBuilder(Integer.MAX_VALUE, (start, chunk) -> result.addAll(chunk));
+    addSpans(lines, highlight(blobId, path, content), content);
+    return result;
+  }
 
+  private Highlights highlight(ObjectId blobId, String path, String content) {
+    String lang = extension(path, content);
+    if (highlightCache != null) {
+      return highlightCache.get(blobId, lang, content);
+    }
+    Highlights h = highlighter.highlight(lang, content);
+    // Unhighlighted text is rendered as plain spans.
+    return h != null ? h : Highlights.empty();
+  }
+
+  private static void addSpans(LineBuilder lines, Highlights h, String content)
+      throws IOException {
     int last = 0;
-    for (ParseResult r : results) {
-      checkState(
-          r.getOffset() >= last,
-          "out-of-order ParseResult, expected %s >= %s",
-          r.getOffset(),
-          last);
-      writeResult(lines, null, content, last, r.getOffset());
-      last = r.getOffset() + r.getLength();
-      writeResult(lines, r.getStyleKeysString(), content, r.getOffset(), last);
+    for (int i = 0; i < h.size(); i++) {
+      lines.add(null, content, last, h.getStart(i));
+      last = h.getEnd(i);
+      lines.add(h.getStyle(i), content, h.getStart(i), last);
     }
     if (last < content.length()) {
-      writeResult(lines, null, content, last, content.length());
+      lines.add(null, content, last, content.length());
     }
-    return lines;
+    lines.finish();
   }
 
-  private List<ParseResult> parse(String path, String content) {
-    String lang = extension(path, content);
-    try {
-      return ThreadSafePrettifyParser.INSTANCE.parse(lang, content);
-    } catch (StackOverflowError e) {
-      // TODO(dborowitz): Aaagh. Make prettify use RE2. Or replace it something
-      // else. Or something.
-      log.warn("StackOverflowError prettifying {}", view.toUrl());
-      return ImmutableList.of(
-          new ParseResult(0, content.length(), ImmutableList.of(Prettify.PR_PLAIN)));
-    }
+  @FunctionalInterface
+  private interface ChunkWriter {
+    void write(int start, List<List<Map<String, String>>> lines) throws IOException;
   }
 
-  private static void writeResult(SoyListData lines, String classes, String s, int start, int end) {
-    SoyListData line = lines.getListData(lines.length() - 1);
-    while (true) {
-      int nl = nextLineBreak(s, start, end);
-      if (nl < 0) {
-        break;
+  /** Splits spans into lines in the form taken by the {@code blobLines} template. */
+  private static class LineBuilder {
+    private final int chunkSize;
+    private final ChunkWriter out;
+    private final List<List<Map<String, String>>> lines = new ArrayList<>();
+    private List<Map<String, String>> line = new ArrayList<>();
+    private int start = 1;
+
+    private LineBuilder(int chunkSize, ChunkWriter out) {
+      this.chunkSize = chunkSize;
+      this.out = out;
+    }
+
+    private void add(String classes, String s, int start, int end) throws IOException {
+      while (true) {
+        int nl = nextLineBreak(s, start, end);
+        if (nl < 0) {
+          break;
+        }
+        addSpan(classes, s, start, nl);
+        endLine();
+
+        start = nl + 1;
+        if (start == s.length()) {
+          return;
+        }
+        line = new ArrayList<>();
+      }
+      addSpan(classes, s, start, end);
+    }
+
+    private void finish() throws IOException {
+      if (line != null) {
+        lines.add(line);
+        line = null;
       }
-      addSpan(line, classes, s, start, nl);
+      flush();
+    }
 
-      start = nl + 1;
-      if (start == s.length()) {
-        return;
+    private void addSpan(String classes, String s, int start, int end) {
+      if (end - start > 0) {
+        if (Strings.isNullOrEmpty(classes)) {
+          classes = Prettify.PR_PLAIN;
+        }
+        line.add(ImmutableMap.of("classes", classes, "text", s.substring(start, end)));
       }
-      line = new SoyListData();
+    }
+
+    private void endLine() throws IOException {
       lines.add(line);
+      line = null;
+      if (lines.size() >= chunkSize) {
+        flush();
+      }
     }
-    addSpan(line, classes, s, start, end);
-  }
 
-  private static void addSpan(SoyListData line, String classes, String s, int start, int end) {
-    if (end - start > 0) {
-      if (Strings.isNullOrEmpty(classes)) {
-        classes = Prettify.PR_PLAIN;
+    private void flush() throws IOException {
+      if (!lines.isEmpty()) {
+        out.write(start, lines);
+        start += lines.size();
+        lines.clear();
       }
-      line.add(new SoyMapData("classes", classes, "text", s.substring(start, end)));
     }
   }
 
@@ -0,0 +1,112 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import javax.annotation.Nullable;
+
+/**
+ * Single byte range requested with an HTTP {@code Range} header.
+ *
+ * <p>Only a single range is supported; requests for multiple ranges are served in full, which
+ * RFC 7233 permits.
+ */
+final class ByteRange {
+  private static final String BYTES_UNIT = "bytes=";
+
+  /**
+   * Parse a {@code Range} header.
+   *
+   * @param header value of the header, or null.
+   * @param size size in bytes of the full representation.
+   * @return the requested range; null if the header is missing, malformed or requests more than
+   *     one range, in which case the full representation should be served.
+   */
+  @Nullable
+  static ByteRange parse(@Nullable String header, long size) {
+    if (header == null || !header.startsWith(BYTES_UNIT) || header.indexOf(',') >= 0) {
+      return null;
+    }
+    String spec = header.substring(BYTES_UNIT.length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0) {
+      return null;
+    }
+    long first = parseNumber(spec.substring(0, dash));
+    long last = parseNumber(spec.substring(dash + 1));
+    if (dash == 0) {
+      // Suffix range: the last N bytes.
+      if (last < 0) {
+        return null;
+      }
+      return new ByteRange(Math.max(0, size - last), size - 1, size);
+    }
+    if (first < 0 || (dash < spec.length() - 1 && last < first)) {
+      return null;
+    }
+    if (dash == spec.length() - 1 || last >= size) {
+      last = size - 1;
+    }
+    return new ByteRange(first, last, size);
+  }
+
+  private static long parseNumber(String s) {
+    if (s.isEmpty() || s.length() > 18) {
+      return -1;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+    }
+    return Long.parseLong(s);
+  }
+
+  private final long first;
+  private final long last;
+  private final long size;
+
+  private ByteRange(long first, long last, long size) {
+    this.first = first;
+    this.last = last;
+    this.size = size;
+  }
+
+  /** @return whether any of the range lies within the representation. */
+  boolean isSatisfiable() {
+    return first < size && first <= last;
+  }
+
+  /** @return whether the range covers the whole representation. */
+  boolean isFull() {
+    return first == 0 && last == size - 1;
+  }
+
+  long getFirst() {
+    return first;
+  }
+
+  long getLength() {
+    return last - first + 1;
+  }
+
+  /** @return value for the {@code Content-Range} header of a response serving this range. */
+  String getContentRange() {
+    if (!isSatisfiable()) {
+      return "bytes */" + size;
+    }
+    return "bytes " + first + "-" + last + "/" + size;
+  }
+}
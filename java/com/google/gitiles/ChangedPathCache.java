@@ -0,0 +1,192 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Cache of the paths changed by commits, summarized as Bloom filters.
+ *
+ * <p>Like the changed-path Bloom filters of Git's commit-graph, a filter holds every path a commit
+ * changes relative to its only parent, along with the directories leading to them, and answers
+ * whether a path may have been changed. A negative answer lets a path-limited log skip the commit
+ * without reading any trees. Commits determine both trees involved, so entries never go stale and
+ * serve every repository containing the commit. Entries are weighed by their estimated size in
+ * bytes.
+ *
+ * <p>A missing filter is computed from a full diff of the commit, which reads every tree the commit
+ * changes rather than only those leading to the logged path. A walk over commits not yet cached
+ * therefore reads more trees than it would without the cache; it only pays off once the same
+ * history is logged for several paths.
+ */
+public class ChangedPathCache {
+  /** Default maximum weight of the cache, in bytes. */
+  public static final long DEFAULT_MAXIMUM_WEIGHT = 16 << 20;
+
+  /** Largest number of paths held in a filter; commits changing more match any path. */
+  static final int MAX_PATHS = 512;
+
+  private static final int BITS_PER_PATH = 10;
+  private static final int HASHES = 7;
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  public static CacheBuilder<ObjectId, Filter> defaultBuilder() {
+    return weigher(CacheBuilder.newBuilder()).maximumWeight(DEFAULT_MAXIMUM_WEIGHT);
+  }
+
+  public static CacheBuilder<ObjectId, Filter> weigher(
+      CacheBuilder<? super ObjectId, ? super Filter> builder) {
+    return builder.weigher((k, v) -> KEY_WEIGHT + v.getWeight());
+  }
+
+  // ObjectId, filter object and cache entry overhead.
+  private static final int KEY_WEIGHT = 112;
+
+  /** Set of paths changed by a commit, which may report paths that were not changed. */
+  public static class Filter {
+    private static final Filter ALL = new Filter(null);
+
+    @Nullable private final long[] bits;
+
+    private Filter(@Nullable long[] bits) {
+      this.bits = bits;
+    }
+
+    private static Filter create(Set<String> paths) {
+      int n = Math.max(paths.size() * BITS_PER_PATH, Long.SIZE);
+      Filter f = new Filter(new long[(n + Long.SIZE - 1) / Long.SIZE]);
+      for (String path : paths) {
+        f.add(path);
+      }
+      return f;
+    }
+
+    private void add(String path) {
+      byte[] h = HASH.hashString(path, UTF_8).asBytes();
+      for (int i = 0; i < HASHES; i++) {
+        int bit = bit(h, i);
+        bits[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+      }
+    }
+
+    /**
+     * @param path slash-separated path of a file or directory, without leading or trailing slash.
+     * @return false if the commit certainly did not change the path or anything below it.
+     */
+    public boolean mightContain(String path) {
+      if (bits == null) {
+        return true;
+      }
+      byte[] h = HASH.hashString(path, UTF_8).asBytes();
+      for (int i = 0; i < HASHES; i++) {
+        int bit = bit(h, i);
+        if ((bits[bit / Long.SIZE] & (1L << (bit % Long.SIZE))) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    int getWeight() {
+      return bits != null ? bits.length * Long.BYTES : 0;
+    }
+
+    /** @return the bit set by the {@code i}th hash function, by double hashing. */
+    private int bit(byte[] h, int i) {
+      long h1 = Longs.fromBytes(h[7], h[6], h[5], h[4], h[3], h[2], h[1], h[0]);
+      long h2 = Longs.fromBytes(h[15], h[14], h[13], h[12], h[11], h[10], h[9], h[8]);
+      return (int) Math.floorMod(h1 + i * h2, (long) bits.length * Long.SIZE);
+    }
+  }
+
+  private final Cache<ObjectId, Filter> cache;
+
+  public ChangedPathCache() {
+    this(defaultBuilder());
+  }
+
+  public ChangedPathCache(CacheBuilder<? super ObjectId, ? super Filter> builder) {
+    this.cache = builder.build();
+  }
+
+  public Cache<ObjectId, Filter> getCache() {
+    return cache;
+  }
+
+  /**
+   * Get the filter of paths changed by a commit, computing it if necessary.
+   *
+   * @param walk walk to parse the commit's parent with.
+   * @param c commit with exactly one parent, whose headers are parsed.
+   * @return filter of the paths changed by the commit.
+   * @throws IOException if the trees could not be read.
+   */
+  Filter get(RevWalk walk, RevCommit c) throws IOException {
+    checkArgument(c.getParentCount() == 1, "%s does not have exactly one parent", c.name());
+    try {
+      return cache.get(c.copy(), () -> compute(walk, c));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e);
+    }
+  }
+
+  private static Filter compute(RevWalk walk, RevCommit c) throws IOException {
+    RevCommit parent = c.getParent(0);
+    walk.parseHeaders(parent);
+    Set<String> paths = new HashSet<>();
+    try (TreeWalk tw = new TreeWalk(walk.getObjectReader())) {
+      tw.setRecursive(true);
+      tw.setFilter(TreeFilter.ANY_DIFF);
+      tw.addTree(parent.getTree());
+      tw.addTree(c.getTree());
+      while (tw.next()) {
+        // Add the path and its leading directories, stopping at the first one already present.
+        String path = tw.getPathString();
+        while (paths.add(path)) {
+          if (paths.size() > MAX_PATHS) {
+            return Filter.ALL;
+          }
+          int slash = path.lastIndexOf('/');
+          if (slash < 0) {
+            break;
+          }
+          path = path.substring(0, slash);
+        }
+      }
+    }
+    return Filter.create(paths);
+  }
+}
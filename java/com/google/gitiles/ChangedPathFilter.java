@@ -0,0 +1,117 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.CharMatcher;
+import java.io.IOException;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.revwalk.FollowFilter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.TreeRevFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Filter limiting a walk to commits that change a path, consulting a {@link ChangedPathCache}
+ * before diffing trees.
+ *
+ * <p>Installed as the walk's revision filter in place of its tree filter, since a walk always
+ * applies its tree filter before any other. Commits the cache rules out are rejected without
+ * reading their trees; the rest are passed to a {@link TreeRevFilter}, and then to the walk's
+ * original revision filter.
+ */
+class ChangedPathFilter extends RevFilter {
+  /**
+   * Get the tree filter limiting a walk, whether set directly or through this filter.
+   *
+   * @param walk revision walk.
+   * @return the walk's tree filter.
+   */
+  static TreeFilter getTreeFilter(RevWalk walk) {
+    RevFilter filter = walk.getRevFilter();
+    if (filter instanceof ChangedPathFilter) {
+      return ((ChangedPathFilter) filter).treeFilter;
+    }
+    return walk.getTreeFilter();
+  }
+
+  /**
+   * Limit a walk to commits that change a path.
+   *
+   * @param walk revision walk, whose revision filter is already set.
+   * @param cache cache of changed paths.
+   * @param path path the walk is limited to.
+   * @param treeFilter filter to diff trees with, either a {@link FollowFilter} for {@code path}, or
+   *     a filter matching differences in {@code path} alone.
+   */
+  static void install(RevWalk walk, ChangedPathCache cache, String path, TreeFilter treeFilter) {
+    walk.setRevFilter(new ChangedPathFilter(walk, cache, path, treeFilter));
+  }
+
+  private final ChangedPathCache cache;
+  private final TreeFilter treeFilter;
+  private final RevFilter treeRevFilter;
+  private final RevFilter next;
+
+  /** Path being followed, or null once it may have been renamed. */
+  @Nullable private String path;
+
+  private ChangedPathFilter(
+      RevWalk walk, ChangedPathCache cache, String path, TreeFilter treeFilter) {
+    this.cache = checkNotNull(cache, "cache");
+    this.path = CharMatcher.is('/').trimFrom(path);
+    this.treeFilter = treeFilter;
+    this.treeRevFilter = new TreeRevFilter(walk, treeFilter);
+    this.next = walk.getRevFilter();
+  }
+
+  @Override
+  public boolean include(RevWalk walker, RevCommit c) throws IOException {
+    if (path != null
+        && c.getParentCount() == 1
+        && !cache.get(walker, c).mightContain(path)) {
+      return false;
+    }
+    if (!treeRevFilter.include(walker, c)) {
+      return false;
+    }
+    if (path != null && treeFilter instanceof FollowFilter && c.getParentCount() == 1) {
+      // The path is followed under its old name if this commit renamed it, which only happens
+      // if the parent lacks it.
+      RevCommit parent = c.getParent(0);
+      walker.parseHeaders(parent);
+      try (TreeWalk tw = TreeWalk.forPath(walker.getObjectReader(), path, parent.getTree())) {
+        if (tw == null) {
+          path = null;
+        }
+      }
+    }
+    return next.include(walker, c);
+  }
+
+  @Override
+  public boolean requiresCommitBody() {
+    return treeRevFilter.requiresCommitBody() || next.requiresCommitBody();
+  }
+
+  @Override
+  public RevFilter clone() {
+    return this;
+  }
+}
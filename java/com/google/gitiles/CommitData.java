@@ -16,17 +16,14 @@ package com.google.gitiles;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
-import static java.util.Comparator.comparing;
-import static java.util.stream.Collectors.toList;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
@@ -34,8 +31,8 @@ import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.http.server.ServletUtils;
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
-import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
@@ -46,6 +43,8 @@ import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.AbstractTreeIterator;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.io.NullOutputStream;
 
 /** Format-independent data about a single commit. */
@@ -74,21 +73,66 @@ class CommitData {
     }
   }
 
+  /** How to compute the {@link Field#DIFF_TREE} of a merge commit. */
+  enum MergeDiff {
+    /** Omit the diff of merges. */
+    OFF,
+
+    /** Diff merges against their first parent, as commits with one parent are. */
+    FIRST_PARENT,
+
+    /**
+     * List the paths of merges that differ from every parent, as {@code git diff-tree -c} does.
+     *
+     * <p>At this level of detail, the dense combined format of {@code --cc} lists the same paths.
+     */
+    COMBINED;
+  }
+
   static class DiffList {
     Revision revision;
     Revision oldRevision;
     List<DiffEntry> entries;
+    List<CombinedDiffEntry> combinedEntries;
+  }
+
+  /** Path of a merge differing from every parent. */
+  static class CombinedDiffEntry {
+    String path;
+    ObjectId newId;
+    FileMode newMode;
+    List<ObjectId> oldIds;
+    List<FileMode> oldModes;
   }
 
   static class Builder {
     private ArchiveFormat archiveFormat;
-    private Map<AnyObjectId, Set<Ref>> refsById;
+    private RefsByIdCache refsByIdCache;
+    private RefsByIdIndex refsById;
+    private Abbreviator abbreviator;
+    private DiffTreePrefetcher diffTreePrefetcher;
+    private MergeDiff mergeDiff = MergeDiff.OFF;
 
     Builder setArchiveFormat(@Nullable ArchiveFormat archiveFormat) {
       this.archiveFormat = archiveFormat;
       return this;
     }
 
+    Builder setRefsByIdCache(@Nullable RefsByIdCache refsByIdCache) {
+      this.refsByIdCache = refsByIdCache;
+      return this;
+    }
+
+    Builder setDiffTreePrefetcher(@Nullable DiffTreePrefetcher diffTreePrefetcher) {
+      this.diffTreePrefetcher = diffTreePrefetcher;
+      return this;
+    }
+
+    Builder setMergeDiff(MergeDiff mergeDiff) {
+      this.mergeDiff = checkNotNull(mergeDiff, "mergeDiff");
+      return this;
+    }
+
     CommitData build(HttpServletRequest req, RevWalk walk, RevCommit c, Set<Field> fs)
         throws IOException {
       checkFields(fs);
@@ -111,9 +155,7 @@ class CommitData {
         result.sha = c.copy();
       }
       if (fs.contains(Field.ABBREV_SHA)) {
-        try (ObjectReader reader = repo.getObjectDatabase().newReader()) {
-          result.abbrev = reader.abbreviate(c);
-        }
+        result.abbrev = getAbbreviator(walk).abbreviate(c);
       }
       if (fs.contains(Field.URL)) {
         result.url = GitilesView.revision().copyFrom(view).setRevision(c).toUrl();
@@ -188,25 +230,23 @@ class CommitData {
           .toUrl();
     }
 
-    private List<Ref> getRefsById(Repository repo, ObjectId id, String prefix) {
-      if (refsById == null) {
-        refsById = repo.getAllRefsByPeeledObjectId();
-      }
-      Set<Ref> refs = refsById.get(id);
-      if (refs == null) {
-        return ImmutableList.of();
+    private Abbreviator getAbbreviator(RevWalk walk) {
+      // Builders are reused across the commits of a page, which share a walk.
+      if (abbreviator == null || abbreviator.getReader() != walk.getObjectReader()) {
+        abbreviator = new Abbreviator(walk.getObjectReader());
       }
-      return refs.stream()
-          .filter(r -> r.getName().startsWith(prefix))
-          .sorted(comparing(Ref::getName))
-          .collect(toList());
+      return abbreviator;
     }
 
-    private AbstractTreeIterator getTreeIterator(RevWalk walk, RevCommit commit)
+    private List<Ref> getRefsById(Repository repo, ObjectId id, String prefix)
         throws IOException {
-      CanonicalTreeParser p = new CanonicalTreeParser();
-      p.reset(walk.getObjectReader(), walk.parseTree(walk.parseCommit(commit).getTree()));
-      return p;
+      if (refsById == null) {
+        refsById =
+            refsByIdCache != null
+                ? refsByIdCache.get(repo.getRefDatabase())
+                : RefsByIdIndex.create(repo.getRefDatabase());
+      }
+      return refsById.get(id, prefix);
     }
 
     private DiffList computeDiffEntries(
@@ -217,30 +257,124 @@ class CommitData {
               ? view.getRevision()
               : Revision.peeled(commit.name(), commit);
 
-      AbstractTreeIterator oldTree;
-      switch (commit.getParentCount()) {
-        case 0:
-          result.oldRevision = Revision.NULL;
-          oldTree = new EmptyTreeIterator();
-          break;
-        case 1:
-          result.oldRevision =
-              Revision.peeled(result.revision.getName() + "^", commit.getParent(0));
-          oldTree = getTreeIterator(walk, commit.getParent(0));
-          break;
-        default:
-          // TODO(dborowitz): handle merges
-          return result;
+      if (commit.getParentCount() == 0) {
+        result.oldRevision = Revision.NULL;
+      } else if (commit.getParentCount() == 1 || mergeDiff == MergeDiff.FIRST_PARENT) {
+        result.oldRevision = Revision.peeled(result.revision.getName() + "^", commit.getParent(0));
+      } else {
+        if (mergeDiff == MergeDiff.COMBINED) {
+          result.combinedEntries = scanCombinedDiffEntries(walk, commit);
+        }
+        return result;
       }
-      AbstractTreeIterator newTree = getTreeIterator(walk, commit);
+      result.entries =
+          diffTreePrefetcher != null
+              ? diffTreePrefetcher.get(commit)
+              : scanDiffEntries(repo, walk, commit);
+      return result;
+    }
+  }
 
-      try (DiffFormatter diff = new DiffFormatter(NullOutputStream.INSTANCE)) {
-        diff.setRepository(repo);
-        diff.setDetectRenames(true);
-        result.entries = diff.scan(oldTree, newTree);
-        return result;
+  private static AbstractTreeIterator getTreeIterator(RevWalk walk, ObjectId commit)
+      throws IOException {
+    CanonicalTreeParser p = new CanonicalTreeParser();
+    p.reset(walk.getObjectReader(), walk.parseTree(walk.parseCommit(commit).getTree()));
+    return p;
+  }
+
+  /**
+   * Diff a commit against its first parent, detecting renames.
+   *
+   * @param repo repository containing the commit.
+   * @param walk walk to parse the commit with; the diff reads objects with its reader.
+   * @param commit commit to diff; a commit without parents is diffed against the empty tree.
+   * @return entries changed by the commit.
+   * @throws IOException if an error occurred reading the trees.
+   */
+  static List<DiffEntry> scanDiffEntries(Repository repo, RevWalk walk, ObjectId commit)
+      throws IOException {
+    RevCommit c = walk.parseCommit(commit);
+    AbstractTreeIterator oldTree =
+        c.getParentCount() == 0 ? new EmptyTreeIterator() : getTreeIterator(walk, c.getParent(0));
+    AbstractTreeIterator newTree = getTreeIterator(walk, c);
+
+    try (DiffFormatter diff = new DiffFormatter(NullOutputStream.INSTANCE)) {
+      diff.setReader(walk.getObjectReader(), repo.getConfig());
+      diff.setDetectRenames(true);
+      return diff.scan(oldTree, newTree);
+    }
+  }
+
+  /**
+   * Diff a merge against all of its parents in a single tree walk.
+   *
+   * <p>Subtrees identical to the same subtree of any parent are skipped without being read, so
+   * this is much cheaper than diffing against each parent in turn. Renames are not detected.
+   *
+   * @param walk walk to parse the commit with; the diff reads objects with its reader.
+   * @param commit commit to diff.
+   * @return entries for the paths differing from every parent, in path order.
+   * @throws IOException if an error occurred reading the trees.
+   */
+  static List<CombinedDiffEntry> scanCombinedDiffEntries(RevWalk walk, ObjectId commit)
+      throws IOException {
+    RevCommit c = walk.parseCommit(commit);
+    int n = c.getParentCount();
+    List<CombinedDiffEntry> result = new ArrayList<>();
+    try (TreeWalk tw = new TreeWalk(walk.getObjectReader())) {
+      for (RevCommit p : c.getParents()) {
+        tw.addTree(walk.parseCommit(p).getTree());
+      }
+      tw.addTree(c.getTree());
+      tw.setRecursive(true);
+      tw.setFilter(DiffersFromAllParents.INSTANCE);
+      while (tw.next()) {
+        CombinedDiffEntry e = new CombinedDiffEntry();
+        e.path = tw.getPathString();
+        e.newId = tw.getObjectId(n);
+        e.newMode = tw.getFileMode(n);
+        e.oldIds = new ArrayList<>(n);
+        e.oldModes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          e.oldIds.add(tw.getObjectId(i));
+          e.oldModes.add(tw.getFileMode(i));
+        }
+        result.add(e);
       }
     }
+    return result;
+  }
+
+  /** Includes entries whose last tree differs from each of the others. */
+  private static class DiffersFromAllParents extends TreeFilter {
+    private static final DiffersFromAllParents INSTANCE = new DiffersFromAllParents();
+
+    @Override
+    public boolean include(TreeWalk tw) {
+      int n = tw.getTreeCount() - 1;
+      int mode = tw.getRawMode(n);
+      for (int i = 0; i < n; i++) {
+        if (tw.getRawMode(i) == mode && tw.idEqual(i, n)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public boolean shouldBeRecursive() {
+      return false;
+    }
+
+    @Override
+    public TreeFilter clone() {
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return "DIFFERS_FROM_ALL_PARENTS";
+    }
   }
 
   ObjectId sha;
@@ -14,17 +14,27 @@
 
 package com.google.gitiles;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.gitiles.CommitData.CombinedDiffEntry;
 import com.google.gitiles.CommitData.DiffList;
 import com.google.gitiles.CommitData.Field;
+import com.google.gitiles.CommitData.MergeDiff;
+import com.google.gitiles.GitilesRequestFailureException.FailureReason;
 import java.io.IOException;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -34,6 +44,81 @@ public class CommitJsonData {
       Sets.immutableEnumSet(
           Field.SHA, Field.TREE, Field.PARENTS, Field.AUTHOR, Field.COMMITTER, Field.MESSAGE);
 
+  /** Query parameter selecting the commit fields to return, by JSON property name. */
+  static final String FIELDS_PARAM = "fields";
+
+  private static final ImmutableMap<String, Field> FIELDS_BY_NAME =
+      ImmutableMap.<String, Field>builder()
+          .put("commit", Field.SHA)
+          .put("tree", Field.TREE)
+          .put("parents", Field.PARENTS)
+          .put("author", Field.AUTHOR)
+          .put("committer", Field.COMMITTER)
+          .put("message", Field.MESSAGE)
+          .put("tree_diff", Field.DIFF_TREE)
+          .build();
+
+  /**
+   * Query parameter selecting how the {@code tree_diff} of merges is computed, named after the
+   * {@code --diff-merges} option of {@code git log}.
+   */
+  static final String DIFF_MERGES_PARAM = "diff-merges";
+
+  private static final ImmutableMap<String, MergeDiff> MERGE_DIFFS_BY_NAME =
+      ImmutableMap.of(
+          "off", MergeDiff.OFF,
+          "first-parent", MergeDiff.FIRST_PARENT,
+          "combined", MergeDiff.COMBINED,
+          "dense-combined", MergeDiff.COMBINED);
+
+  /**
+   * Get the fields requested by a client.
+   *
+   * @param view view of the request. Its {@code fields} parameter, if present, holds a
+   *     comma-separated list of JSON property names of {@link Commit}, such as {@code
+   *     fields=commit,parents}.
+   * @param defaults fields to return when the request does not select any.
+   * @return mutable set of fields to compute.
+   * @throws GitilesRequestFailureException if an unknown field is named.
+   */
+  static Set<Field> getFields(GitilesView view, Set<Field> defaults) {
+    List<String> values = view.getParameters().get(FIELDS_PARAM);
+    if (values.isEmpty()) {
+      return EnumSet.copyOf(defaults);
+    }
+    Set<Field> fs = EnumSet.noneOf(Field.class);
+    for (String value : values) {
+      for (String name : Splitter.on(',').trimResults().omitEmptyStrings().split(value)) {
+        Field f = FIELDS_BY_NAME.get(name);
+        if (f == null) {
+          throw new GitilesRequestFailureException(FailureReason.INCORECT_PARAMETER);
+        }
+        fs.add(f);
+      }
+    }
+    return fs;
+  }
+
+  /**
+   * Get how a client asked for the diffs of merges to be computed.
+   *
+   * @param view view of the request. Its {@code diff-merges} parameter, if present, is one of
+   *     {@code off}, {@code first-parent}, {@code combined} or {@code dense-combined}.
+   * @return how to compute the diffs of merges; {@link MergeDiff#OFF} if not requested.
+   * @throws GitilesRequestFailureException if the parameter has an unknown value.
+   */
+  static MergeDiff getMergeDiff(GitilesView view) {
+    String value = Iterables.getFirst(view.getParameters().get(DIFF_MERGES_PARAM), null);
+    if (value == null) {
+      return MergeDiff.OFF;
+    }
+    MergeDiff mergeDiff = MERGE_DIFFS_BY_NAME.get(value);
+    if (mergeDiff == null) {
+      throw new GitilesRequestFailureException(FailureReason.INCORECT_PARAMETER);
+    }
+    return mergeDiff;
+  }
+
   public static class Log {
     public List<Commit> log;
     public String previous;
@@ -57,7 +142,10 @@ public class CommitJsonData {
     List<Diff> treeDiff;
   }
 
-  /** @see DiffEntry */
+  /**
+   * @see DiffEntry
+   * @see ParentDiff
+   */
   static class Diff {
     String type;
     String oldId;
@@ -67,6 +155,39 @@ public class CommitJsonData {
     int newMode;
     String newPath;
     Integer score;
+
+    /**
+     * For a combined diff of a merge, the old side of each parent, in order; the type and old
+     * side of the diff itself are then omitted.
+     */
+    List<ParentDiff> parents;
+  }
+
+  /** One parent's side of a combined {@link Diff} of a merge. */
+  static class ParentDiff {
+    String type;
+    String oldId;
+    int oldMode;
+    String oldPath;
+  }
+
+  private RefsByIdCache refsByIdCache;
+  private DiffTreePrefetcher diffTreePrefetcher;
+  private MergeDiff mergeDiff = MergeDiff.OFF;
+
+  CommitJsonData setRefsByIdCache(@Nullable RefsByIdCache refsByIdCache) {
+    this.refsByIdCache = refsByIdCache;
+    return this;
+  }
+
+  CommitJsonData setDiffTreePrefetcher(@Nullable DiffTreePrefetcher diffTreePrefetcher) {
+    this.diffTreePrefetcher = diffTreePrefetcher;
+    return this;
+  }
+
+  CommitJsonData setMergeDiff(MergeDiff mergeDiff) {
+    this.mergeDiff = mergeDiff;
+    return this;
   }
 
   Commit toJsonData(HttpServletRequest req, RevWalk walk, RevCommit c, DateFormatter df)
@@ -77,7 +198,12 @@ public class CommitJsonData {
   Commit toJsonData(
       HttpServletRequest req, RevWalk walk, RevCommit c, Set<Field> fs, DateFormatter df)
       throws IOException {
-    CommitData cd = new CommitData.Builder().build(req, walk, c, fs);
+    CommitData cd =
+        new CommitData.Builder()
+            .setRefsByIdCache(refsByIdCache)
+            .setDiffTreePrefetcher(diffTreePrefetcher)
+            .setMergeDiff(mergeDiff)
+            .build(req, walk, c, fs);
 
     Commit result = new Commit();
     if (cd.sha != null) {
@@ -116,6 +242,9 @@ public class CommitJsonData {
   }
 
   private static List<Diff> toJsonData(DiffList dl) {
+    if (dl.combinedEntries != null) {
+      return toCombinedJsonData(dl.combinedEntries);
+    }
     if (dl.entries == null) {
       return ImmutableList.of();
     }
@@ -146,4 +275,34 @@ public class CommitJsonData {
     }
     return result;
   }
+
+  private static List<Diff> toCombinedJsonData(List<CombinedDiffEntry> entries) {
+    List<Diff> result = Lists.newArrayListWithCapacity(entries.size());
+    for (CombinedDiffEntry e : entries) {
+      Diff d = new Diff();
+      d.newId = e.newId.name();
+      d.newMode = e.newMode.getBits();
+      d.newPath = e.path;
+      d.parents = Lists.newArrayListWithCapacity(e.oldIds.size());
+      for (int i = 0; i < e.oldIds.size(); i++) {
+        ParentDiff p = new ParentDiff();
+        FileMode oldMode = e.oldModes.get(i);
+        ChangeType type;
+        if (oldMode == FileMode.MISSING) {
+          type = ChangeType.ADD;
+        } else if (e.newMode == FileMode.MISSING) {
+          type = ChangeType.DELETE;
+        } else {
+          type = ChangeType.MODIFY;
+        }
+        p.type = type.name().toLowerCase();
+        p.oldId = e.oldIds.get(i).name();
+        p.oldMode = oldMode.getBits();
+        p.oldPath = e.path;
+        d.parents.add(p);
+      }
+      result.add(d);
+    }
+    return result;
+  }
 }
@@ -63,6 +63,8 @@ public class CommitSoyData {
   private Linkifier linkifier;
   private CommitData.Builder cdb;
   private ArchiveFormat archiveFormat;
+  private RefsByIdCache refsByIdCache;
+  private DiffTreePrefetcher diffTreePrefetcher;
 
   CommitSoyData setLinkifier(@Nullable Linkifier linkifier) {
     this.linkifier = linkifier;
@@ -74,6 +76,16 @@ public class CommitSoyData {
     return this;
   }
 
+  CommitSoyData setRefsByIdCache(@Nullable RefsByIdCache refsByIdCache) {
+    this.refsByIdCache = refsByIdCache;
+    return this;
+  }
+
+  CommitSoyData setDiffTreePrefetcher(@Nullable DiffTreePrefetcher diffTreePrefetcher) {
+    this.diffTreePrefetcher = diffTreePrefetcher;
+    return this;
+  }
+
   Map<String, Object> toSoyData(
       HttpServletRequest req, RevWalk walk, RevCommit c, Set<Field> fs, DateFormatter df)
       throws IOException {
@@ -82,7 +94,11 @@ public class CommitSoyData {
       cdb = new CommitData.Builder();
     }
 
-    CommitData cd = cdb.setArchiveFormat(archiveFormat).build(req, walk, c, fs);
+    CommitData cd =
+        cdb.setArchiveFormat(archiveFormat)
+            .setRefsByIdCache(refsByIdCache)
+            .setDiffTreePrefetcher(diffTreePrefetcher)
+            .build(req, walk, c, fs);
 
     Map<String, Object> data = Maps.newHashMapWithExpectedSize(fs.size());
     if (cd.author != null) {
@@ -0,0 +1,177 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import com.google.common.base.Ascii;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HttpHeaders;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Content coding applied to response bodies, negotiated from the {@code Accept-Encoding} request
+ * header as described in RFC 7231 section 5.3.4.
+ *
+ * <p>Constants are declared in order of server preference, which breaks ties between codings the
+ * client weights equally.
+ */
+enum ContentEncoding {
+  GZIP("gzip", "x-gzip") {
+    @Override
+    OutputStream encode(OutputStream out, int sizeHint) throws IOException {
+      return Gzip.compress(out, sizeHint);
+    }
+  },
+
+  IDENTITY("identity") {
+    @Override
+    OutputStream encode(OutputStream out, int sizeHint) {
+      return out;
+    }
+  };
+
+  private static final int Q_SCALE = 1000;
+
+  /**
+   * Choose the coding for a response.
+   *
+   * @param req in-progress request.
+   * @return the preferred coding acceptable to the client. If the client accepts none of the
+   *     supported codings, identity is returned anyway, as RFC 7231 permits.
+   */
+  static ContentEncoding negotiate(HttpServletRequest req) {
+    return negotiate(req.getHeader(HttpHeaders.ACCEPT_ENCODING));
+  }
+
+  static ContentEncoding negotiate(@Nullable String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return IDENTITY;
+    }
+    // Weights are scaled to integers in [0, 1000]; -1 means the coding was not mentioned.
+    int[] q = new int[values().length];
+    Arrays.fill(q, -1);
+    int wildcard = -1;
+    for (int b = 0; b < acceptEncoding.length(); ) {
+      int comma = acceptEncoding.indexOf(',', b);
+      int e = 0 <= comma ? comma : acceptEncoding.length();
+      String term = acceptEncoding.substring(b, e);
+      b = e + 1;
+
+      int semi = term.indexOf(';');
+      String name = Ascii.toLowerCase((semi < 0 ? term : term.substring(0, semi)).trim());
+      int weight = semi < 0 ? Q_SCALE : parseWeight(term.substring(semi + 1));
+      if (name.isEmpty() || weight < 0) {
+        continue;
+      }
+      if (name.equals("*")) {
+        wildcard = Math.max(wildcard, weight);
+        continue;
+      }
+      for (ContentEncoding enc : values()) {
+        if (enc.names.contains(name)) {
+          q[enc.ordinal()] = Math.max(q[enc.ordinal()], weight);
+        }
+      }
+    }
+
+    ContentEncoding best = IDENTITY;
+    int bestQ = 0;
+    for (ContentEncoding enc : values()) {
+      int w = q[enc.ordinal()];
+      if (w < 0) {
+        // Identity is acceptable unless explicitly excluded, directly or via "*;q=0".
+        w = wildcard >= 0 ? wildcard : (enc == IDENTITY ? 1 : 0);
+      }
+      if (w > bestQ) {
+        best = enc;
+        bestQ = w;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Parse the parameters of one {@code Accept-Encoding} element.
+   *
+   * @return the weight scaled to [0, 1000], or -1 if it is malformed.
+   */
+  private static int parseWeight(String params) {
+    String p = params.trim();
+    if (p.length() < 2 || Ascii.toLowerCase(p.charAt(0)) != 'q' || p.charAt(1) != '=') {
+      return -1;
+    }
+    String v = p.substring(2).trim();
+    if (v.isEmpty() || v.length() > 5 || (v.charAt(0) != '0' && v.charAt(0) != '1')) {
+      return -1;
+    }
+    int weight = (v.charAt(0) - '0') * Q_SCALE;
+    if (v.length() > 1) {
+      if (v.charAt(1) != '.') {
+        return -1;
+      }
+      for (int i = 2, scale = Q_SCALE / 10; i < v.length(); i++, scale /= 10) {
+        char c = v.charAt(i);
+        if (c < '0' || c > '9') {
+          return -1;
+        }
+        weight += (c - '0') * scale;
+      }
+    }
+    return weight <= Q_SCALE ? weight : -1;
+  }
+
+  private final String name;
+  private final ImmutableSet<String> names;
+
+  ContentEncoding(String name, String... aliases) {
+    this.name = name;
+    this.names = ImmutableSet.<String>builder().add(name).add(aliases).build();
+  }
+
+  /** @return token naming this coding in {@code Content-Encoding}. */
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Wrap a stream so that data written to it is encoded.
+   *
+   * @param out stream receiving encoded data; closed when the returned stream is closed.
+   * @param sizeHint expected number of unencoded bytes, or -1 if unknown.
+   * @return stream to write unencoded data to.
+   * @throws IOException if the coding's header could not be written.
+   */
+  abstract OutputStream encode(OutputStream out, int sizeHint) throws IOException;
+
+  /**
+   * Set response headers for this coding and open the encoded response body.
+   *
+   * @param res in-progress response.
+   * @param sizeHint expected number of unencoded bytes, or -1 if unknown.
+   * @return stream to write the unencoded body to.
+   * @throws IOException if the body could not be opened.
+   */
+  OutputStream start(HttpServletResponse res, int sizeHint) throws IOException {
+    res.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (this != IDENTITY) {
+      res.setHeader(HttpHeaders.CONTENT_ENCODING, name);
+    }
+    return encode(res.getOutputStream(), sizeHint);
+  }
+}
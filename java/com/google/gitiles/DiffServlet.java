@@ -26,6 +26,7 @@ import java.io.Writer;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jgit.diff.DiffFormatter;
@@ -48,10 +49,25 @@ public class DiffServlet extends BaseServlet {
   private static final long serialVersionUID = 1L;
 
   private final Linkifier linkifier;
+  @Nullable private final RefsByIdCache refsByIdCache;
 
   public DiffServlet(GitilesAccess.Factory accessFactory, Renderer renderer, Linkifier linkifier) {
+    this(accessFactory, renderer, linkifier, null);
+  }
+
+  public DiffServlet(
+      GitilesAccess.Factory accessFactory,
+      Renderer renderer,
+      Linkifier linkifier,
+      @Nullable RefsByIdCache refsByIdCache) {
     super(renderer, accessFactory);
     this.linkifier = checkNotNull(linkifier, "linkifier");
+    this.refsByIdCache = refsByIdCache;
+  }
+
+  @Override
+  protected String getEtag(HttpServletRequest req, FormatType format) {
+    return getViewEtag(req, format);
   }
 
   @Override
@@ -95,6 +111,7 @@ public class DiffServlet extends BaseServlet {
             "commit",
             new CommitSoyData()
                 .setLinkifier(linkifier)
+                .setRefsByIdCache(refsByIdCache)
                 .setArchiveFormat(getArchiveFormat(access))
                 .toSoyData(req, walk, walk.parseCommit(view.getRevision().getId()), fs, df));
       }
@@ -0,0 +1,248 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gitiles.CommitData.MergeDiff;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Computes the {@link CommitData.Field#DIFF_TREE} entries of upcoming commits in a log ahead of
+ * rendering.
+ *
+ * <p>Iterating over this prefetcher iterates over the underlying commits in order, while keeping
+ * the diffs of the next few in flight on a thread pool shared by all requests. The number of diffs
+ * in flight for one request is capped, and each uses its own reader, since readers are not
+ * thread-safe; readers are reused by later diffs of the same request. A diff that no pool thread
+ * has started by the time it is needed is computed on the request thread, so a busy pool delays a
+ * request no more than computing its diffs one at a time would.
+ *
+ * <p>The pool is static, and not tied to the lifecycle of any servlet or filter. Its threads are
+ * daemon threads that exit after a minute without work, so that they neither keep the JVM running
+ * nor hold on to the class loader of an undeployed web application for longer than that.
+ */
+class DiffTreePrefetcher implements Iterable<RevCommit>, AutoCloseable {
+  private static class ExecutorHolder {
+    private static final Executor EXECUTOR = newExecutor();
+
+    private static Executor newExecutor() {
+      int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+      ThreadPoolExecutor executor =
+          new ThreadPoolExecutor(
+              threads,
+              threads,
+              1,
+              TimeUnit.MINUTES,
+              new LinkedBlockingQueue<>(),
+              new ThreadFactoryBuilder().setNameFormat("gitiles-diff-%d").setDaemon(true).build());
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    }
+  }
+
+  /** Default maximum number of diffs in flight for one request. */
+  static final int DEFAULT_CONCURRENCY = 4;
+
+  /**
+   * Create a prefetcher as configured.
+   *
+   * @param repo repository containing the commits.
+   * @param commits commits in the order they will be rendered; iterated at most once.
+   * @param mergeDiff how the diffs of merges will be computed.
+   * @param config configuration, which may set {@code log.diffConcurrency}.
+   * @return a prefetcher, or null if the configuration disables prefetching.
+   */
+  @Nullable
+  static DiffTreePrefetcher create(
+      Repository repo, Iterable<RevCommit> commits, MergeDiff mergeDiff, Config config) {
+    int concurrency = config.getInt("log", null, "diffConcurrency", DEFAULT_CONCURRENCY);
+    return concurrency > 1 ? new DiffTreePrefetcher(repo, commits, mergeDiff, concurrency) : null;
+  }
+
+  private final Repository repo;
+  private final Iterable<RevCommit> commits;
+  private final MergeDiff mergeDiff;
+  private final Executor executor;
+  private final int concurrency;
+  private final Map<ObjectId, FutureTask<List<DiffEntry>>> pending = new HashMap<>();
+  private final List<ObjectReader> idleReaders = new ArrayList<>();
+  private boolean closed;
+
+  /**
+   * @param repo repository containing the commits.
+   * @param commits commits in the order they will be rendered; iterated at most once.
+   * @param mergeDiff how the diffs of merges will be computed; only diffs against the first
+   *     parent are computed ahead of time.
+   * @param concurrency maximum number of diffs in flight; must be at least 1.
+   */
+  DiffTreePrefetcher(
+      Repository repo, Iterable<RevCommit> commits, MergeDiff mergeDiff, int concurrency) {
+    this(repo, commits, mergeDiff, ExecutorHolder.EXECUTOR, concurrency);
+  }
+
+  DiffTreePrefetcher(
+      Repository repo,
+      Iterable<RevCommit> commits,
+      MergeDiff mergeDiff,
+      Executor executor,
+      int concurrency) {
+    checkArgument(concurrency > 0, "concurrency must be positive: %s", concurrency);
+    this.repo = checkNotNull(repo, "repo");
+    this.commits = checkNotNull(commits, "commits");
+    this.mergeDiff = checkNotNull(mergeDiff, "mergeDiff");
+    this.executor = checkNotNull(executor, "executor");
+    this.concurrency = concurrency;
+  }
+
+  @Override
+  public Iterator<RevCommit> iterator() {
+    Iterator<RevCommit> source = commits.iterator();
+    Deque<RevCommit> ahead = new ArrayDeque<>(concurrency);
+    return new Iterator<RevCommit>() {
+      @Override
+      public boolean hasNext() {
+        fill();
+        return !ahead.isEmpty();
+      }
+
+      @Override
+      public RevCommit next() {
+        fill();
+        if (ahead.isEmpty()) {
+          throw new NoSuchElementException();
+        }
+        return ahead.remove();
+      }
+
+      private void fill() {
+        // The commit returned last has been rendered by now, so its diff is no longer in flight.
+        while (ahead.size() < concurrency && source.hasNext()) {
+          RevCommit c = source.next();
+          ahead.add(c);
+          if (c.getParentCount() <= 1 || mergeDiff == MergeDiff.FIRST_PARENT) {
+            ObjectId id = c.copy();
+            pending.computeIfAbsent(id, k -> submit(id));
+          }
+        }
+      }
+    };
+  }
+
+  private FutureTask<List<DiffEntry>> submit(ObjectId id) {
+    FutureTask<List<DiffEntry>> task = new FutureTask<>(() -> scan(id));
+    executor.execute(task);
+    return task;
+  }
+
+  /**
+   * Get the diff entries of a commit.
+   *
+   * @param commit commit to diff against its first parent, if any.
+   * @return entries changed by the commit, computed ahead of time if the commit was returned by
+   *     this prefetcher's iterator.
+   * @throws IOException if an error occurred reading the trees.
+   */
+  List<DiffEntry> get(RevCommit commit) throws IOException {
+    FutureTask<List<DiffEntry>> task = pending.remove(commit);
+    if (task == null) {
+      return scan(commit);
+    }
+    // Does nothing if a pool thread has already started the task.
+    task.run();
+    try {
+      return Uninterruptibles.getUninterruptibly(task);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private List<DiffEntry> scan(ObjectId commit) throws IOException {
+    ObjectReader reader = acquireReader();
+    try (RevWalk walk = new RevWalk(reader)) {
+      return CommitData.scanDiffEntries(repo, walk, commit);
+    } finally {
+      releaseReader(reader);
+    }
+  }
+
+  private synchronized ObjectReader acquireReader() throws IOException {
+    if (closed) {
+      throw new InterruptedIOException("diff prefetcher closed");
+    }
+    if (idleReaders.isEmpty()) {
+      return repo.newObjectReader();
+    }
+    return idleReaders.remove(idleReaders.size() - 1);
+  }
+
+  private synchronized void releaseReader(ObjectReader reader) {
+    if (closed) {
+      reader.close();
+    } else {
+      idleReaders.add(reader);
+    }
+  }
+
+  /**
+   * Stop computing diffs that have not been requested.
+   *
+   * <p>Diffs already running are left to finish, rather than interrupted, since interrupting a
+   * thread reading a pack file closes the channel for every reader of the pack.
+   */
+  @Override
+  public void close() {
+    for (FutureTask<List<DiffEntry>> task : pending.values()) {
+      task.cancel(false);
+    }
+    pending.clear();
+    synchronized (this) {
+      closed = true;
+      for (ObjectReader reader : idleReaders) {
+        reader.close();
+      }
+      idleReaders.clear();
+    }
+  }
+}
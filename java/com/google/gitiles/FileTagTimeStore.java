@@ -0,0 +1,186 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store of the times of the tags of each repository in a local directory.
+ *
+ * <p>Lets {@link TimeCache} list the tags of a repository by time after a restart without reading
+ * every tag again. The times of each repository's tags are a single file, keyed on tag ID and
+ * rewritten when they are loaded into memory and some tags had to be read, ending in a CRC32
+ * checksum; files that fail validation are deleted and treated as misses. Since the time of an ID
+ * never changes, entries never go stale, and files are never evicted, as there is only one per
+ * repository.
+ */
+public class FileTagTimeStore {
+  private static final Logger log = LoggerFactory.getLogger(FileTagTimeStore.class);
+
+  private static final int MAGIC = 0x47544147; // "GTAG"
+  private static final int VERSION = 1;
+  private static final String SUFFIX = ".tags";
+
+  private final Path dir;
+
+  /**
+   * Open a store, creating its directory if necessary.
+   *
+   * @param dir directory to store entries in; should not be shared with anything else.
+   * @throws IOException the directory could not be created or scanned.
+   */
+  public FileTagTimeStore(Path dir) throws IOException {
+    this.dir = dir;
+    Files.createDirectories(dir);
+    try (Stream<Path> files = Files.list(dir)) {
+      files
+          .filter(p -> p.getFileName().toString().startsWith("tmp"))
+          .forEach(
+              p -> {
+                try {
+                  // Left behind by an interrupted write.
+                  Files.deleteIfExists(p);
+                } catch (IOException e) {
+                  log.warn("Error deleting tag time entry " + p, e);
+                }
+              });
+    }
+  }
+
+  public Path getDirectory() {
+    return dir;
+  }
+
+  /**
+   * Read the tag times of a repository.
+   *
+   * @param repositoryId {@link org.eclipse.jgit.lib.Repository#getIdentifier() identifier} of the
+   *     repository.
+   * @return times of the tags of the repository by ID, or null if the entry is missing or invalid.
+   */
+  @Nullable
+  public Map<ObjectId, Long> get(String repositoryId) {
+    Path file = dir.resolve(fileName(repositoryId));
+    try {
+      Map<ObjectId, Long> times = decode(repositoryId, Files.readAllBytes(file));
+      if (times != null) {
+        return times;
+      }
+      log.warn("Discarding invalid tag time entry {} for {}", file, repositoryId);
+      Files.deleteIfExists(file);
+    } catch (NoSuchFileException e) {
+      // Not stored yet.
+    } catch (IOException | RuntimeException e) {
+      log.warn("Error reading tag time entry " + file, e);
+    }
+    return null;
+  }
+
+  /**
+   * Write the tag times of a repository, replacing any previous entry.
+   *
+   * <p>Errors are logged and otherwise ignored, since the store is only a cache.
+   *
+   * @param repositoryId identifier of the repository.
+   * @param times times of the tags of the repository by ID.
+   */
+  public void put(String repositoryId, Map<ObjectId, Long> times) {
+    Path file = dir.resolve(fileName(repositoryId));
+    try {
+      byte[] data = encode(repositoryId, times);
+      Path tmp = Files.createTempFile(dir, "tmp", null);
+      try {
+        Files.write(tmp, data);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) {
+      log.warn("Error writing tag time entry " + file, e);
+    }
+  }
+
+  private static String fileName(String repositoryId) {
+    byte[] digest = Constants.newMessageDigest().digest(repositoryId.getBytes(UTF_8));
+    return ObjectId.fromRaw(digest).name() + SUFFIX;
+  }
+
+  private static byte[] encode(String repositoryId, Map<ObjectId, Long> times)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(repositoryId);
+    out.writeInt(times.size());
+    byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+    for (Map.Entry<ObjectId, Long> e : times.entrySet()) {
+      e.getKey().copyRawTo(buf, 0);
+      out.write(buf);
+      out.writeLong(e.getValue());
+    }
+    CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray());
+    out.writeLong(crc.getValue());
+    return bytes.toByteArray();
+  }
+
+  @Nullable
+  private static Map<ObjectId, Long> decode(String repositoryId, byte[] data) throws IOException {
+    if (data.length < 8) {
+      return null;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, data.length - 8);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+    if (crc.getValue()
+        != new DataInputStream(new ByteArrayInputStream(data, data.length - 8, 8)).readLong()) {
+      return null;
+    }
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      return null;
+    }
+    if (!in.readUTF().equals(repositoryId)) {
+      return null;
+    }
+    int n = in.readInt();
+    ImmutableMap.Builder<ObjectId, Long> times = ImmutableMap.builderWithExpectedSize(n);
+    byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+    for (int i = 0; i < n; i++) {
+      in.readFully(buf);
+      times.put(ObjectId.fromRaw(buf), in.readLong());
+    }
+    return times.build();
+  }
+}
@@ -25,6 +25,7 @@ public enum FormatType {
   HTML("text/html"),
   TEXT("text/plain"),
   JSON("application/json"),
+  RAW("application/octet-stream"),
   DEFAULT("*/*");
 
   private static final String FORMAT_TYPE_ATTRIBUTE = FormatType.class.getName();
@@ -49,7 +50,8 @@ public enum FormatType {
 
     for (String p : accept.split("[ ,;][ ,;]*")) {
       for (FormatType type : FormatType.values()) {
-        if (p.equals(type.mimeType)) {
+        // Raw content is only served when explicitly requested with ?format=.
+        if (type != RAW && p.equals(type.mimeType)) {
           return set(req, Optional.of(type != HTML ? type : DEFAULT));
         }
       }
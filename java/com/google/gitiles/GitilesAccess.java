@@ -73,6 +73,17 @@ public interface GitilesAccess {
    */
   Object getUserKey();
 
+  /**
+   * @return an opaque object identifying the class of users that can see the same objects in the
+   *     repository associated with the request, and supports {@link Object#equals(Object)} and
+   *     {@link Object#hashCode()}. Visibility checks are cached and shared by all users with equal
+   *     keys. Defaults to {@link #getUserKey()}; implementations where visibility does not depend
+   *     on the user may return a constant. Never null.
+   */
+  default Object getAclClassKey() {
+    return getUserKey();
+  }
+
   /** @return the repository name associated with the request. */
   String getRepositoryName();
 
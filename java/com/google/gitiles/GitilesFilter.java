@@ -22,6 +22,7 @@ import static com.google.gitiles.Renderer.fileUrlMapper;
 import static java.util.stream.Collectors.toList;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
@@ -29,12 +30,16 @@ import com.google.common.collect.Maps;
 import com.google.gitiles.blame.BlameServlet;
 import com.google.gitiles.blame.cache.BlameCache;
 import com.google.gitiles.blame.cache.BlameCacheImpl;
+import com.google.gitiles.blame.cache.FileBlameStore;
+import com.google.gitiles.blame.cache.Region;
 import com.google.gitiles.doc.DocServlet;
 import java.io.File;
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
@@ -51,6 +56,7 @@ import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.http.server.glue.MetaFilter;
 import org.eclipse.jgit.http.server.glue.ServletBinder;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.transport.resolver.FileResolver;
 import org.eclipse.jgit.transport.resolver.RepositoryResolver;
 
@@ -174,6 +180,10 @@ class GitilesFilter extends MetaFilter {
   private VisibilityCache visibilityCache;
   private TimeCache timeCache;
   private BlameCache blameCache;
+  private HighlightCache highlightCache;
+  private ChangedPathCache changedPathCache;
+  private RefsByIdCache refsByIdCache;
+  private ResponseCacheFilter responseCache;
   private GitwebRedirectFilter gitwebRedirect;
   private Filter errorHandler;
   private boolean initialized;
@@ -228,10 +238,12 @@ class GitilesFilter extends MetaFilter {
 
     serveRegex(REPO_REGEX).through(repositoryFilter).through(viewFilter).through(dispatchFilter);
 
-    serveRegex(REPO_PATH_REGEX)
-        .through(repositoryFilter)
-        .through(viewFilter)
-        .through(dispatchFilter);
+    ServletBinder repoPath =
+        serveRegex(REPO_PATH_REGEX).through(repositoryFilter).through(viewFilter);
+    if (responseCache != null) {
+      repoPath.through(responseCache);
+    }
+    repoPath.through(dispatchFilter);
 
     initialized = true;
   }
@@ -248,24 +260,26 @@ class GitilesFilter extends MetaFilter {
       case HOST_INDEX:
         return new HostIndexServlet(accessFactory, renderer, urls);
       case REPOSITORY_INDEX:
-        return new RepositoryIndexServlet(accessFactory, renderer, timeCache);
+        return new RepositoryIndexServlet(accessFactory, renderer, timeCache, refsByIdCache);
       case REFS:
         return new RefServlet(accessFactory, renderer, timeCache);
       case REVISION:
-        return new RevisionServlet(accessFactory, renderer, linkifier());
+        return new RevisionServlet(
+            accessFactory, renderer, linkifier(), highlightCache, refsByIdCache);
       case SHOW:
       case PATH:
-        return new PathServlet(accessFactory, renderer, urls);
+        return new PathServlet(accessFactory, renderer, urls, highlightCache);
       case DIFF:
-        return new DiffServlet(accessFactory, renderer, linkifier());
+        return new DiffServlet(accessFactory, renderer, linkifier(), refsByIdCache);
       case LOG:
-        return new LogServlet(accessFactory, renderer, linkifier());
+        return new LogServlet(
+            accessFactory, renderer, linkifier(), changedPathCache, refsByIdCache);
       case DESCRIBE:
         return new DescribeServlet(accessFactory);
       case ARCHIVE:
         return new ArchiveServlet(accessFactory);
       case BLAME:
-        return new BlameServlet(accessFactory, renderer, blameCache);
+        return new BlameServlet(accessFactory, renderer, blameCache, highlightCache);
       case DOC:
       case ROOTED_DOC:
         return new DocServlet(accessFactory, renderer);
@@ -309,6 +323,11 @@ class GitilesFilter extends MetaFilter {
     setDefaultVisibilityCache();
     setDefaultTimeCache();
     setDefaultBlameCache();
+    setDefaultHighlightCache();
+    setDefaultChangedPathCache();
+    setDefaultRefsByIdCache();
+    setDefaultResponseCache();
+    setCompressionLevel();
     setDefaultGitwebRedirect();
     setDefaultErrorHandler();
   }
@@ -381,34 +400,188 @@ class GitilesFilter extends MetaFilter {
 
   private void setDefaultVisibilityCache() {
     if (visibilityCache == null) {
+      VisibilityChecker checker;
+      if (config.getBoolean("gitiles", null, "visibilityBitmaps", false)) {
+        if (config.getSubsections("cache").contains("visibilityBitmaps")) {
+          checker =
+              new BitmapVisibilityChecker(ConfigUtil.getCacheBuilder(config, "visibilityBitmaps"));
+        } else {
+          checker = new BitmapVisibilityChecker();
+        }
+      } else {
+        checker = new VisibilityChecker();
+      }
       if (config.getSubsections("cache").contains("visibility")) {
-        visibilityCache = new VisibilityCache(ConfigUtil.getCacheBuilder(config, "visibility"));
+        visibilityCache =
+            new VisibilityCache(checker, ConfigUtil.getCacheBuilder(config, "visibility"));
       } else {
-        visibilityCache = new VisibilityCache();
+        visibilityCache = new VisibilityCache(checker);
       }
     }
   }
 
-  private void setDefaultTimeCache() {
+  private void setDefaultTimeCache() throws ServletException {
     if (timeCache == null) {
-      if (config.getSubsections("cache").contains("tagTime")) {
-        timeCache = new TimeCache(ConfigUtil.getCacheBuilder(config, "tagTime"));
+      if (config.getSubsections("cache").contains("tagTime")
+          || config.getSubsections("cache").contains("tagIndex")) {
+        CacheBuilder<Object, Object> builder = ConfigUtil.getCacheBuilder(config, "tagTime");
+        if (config.getString("cache", "tagTime", "maximumSize") == null
+            && config.getString("cache", "tagTime", "maximumWeight") == null) {
+          builder.maximumSize(TimeCache.DEFAULT_MAXIMUM_SIZE);
+        }
+        timeCache = new TimeCache(builder, getTagIndexCacheBuilder(), getTagTimeStore());
       } else {
         timeCache = new TimeCache();
       }
     }
   }
 
-  private void setDefaultBlameCache() {
+  private CacheBuilder<? super String, ? super TimeCache.TagIndex> getTagIndexCacheBuilder() {
+    CacheBuilder<Object, Object> builder = ConfigUtil.getCacheBuilder(config, "tagIndex");
+    if (config.getString("cache", "tagIndex", "maximumSize") != null) {
+      return builder;
+    }
+    CacheBuilder<String, TimeCache.TagIndex> weighed = TimeCache.tagIndexWeigher(builder);
+    if (config.getString("cache", "tagIndex", "maximumWeight") == null) {
+      weighed.maximumWeight(TimeCache.DEFAULT_MAXIMUM_TAG_INDEX_WEIGHT);
+    }
+    return weighed;
+  }
+
+  private void setDefaultBlameCache() throws ServletException {
     if (blameCache == null) {
       if (config.getSubsections("cache").contains("blame")) {
-        blameCache = new BlameCacheImpl(ConfigUtil.getCacheBuilder(config, "blame"));
+        blameCache = new BlameCacheImpl(getBlameCacheBuilder(), getBlameStore());
       } else {
         blameCache = new BlameCacheImpl();
       }
     }
   }
 
+  private CacheBuilder<? super BlameCacheImpl.Key, ? super List<Region>> getBlameCacheBuilder() {
+    CacheBuilder<Object, Object> builder = ConfigUtil.getCacheBuilder(config, "blame");
+    if (config.getString("cache", "blame", "maximumSize") != null) {
+      return builder;
+    }
+    CacheBuilder<BlameCacheImpl.Key, List<Region>> weighed = BlameCacheImpl.weigher(builder);
+    if (config.getString("cache", "blame", "maximumWeight") == null) {
+      weighed.maximumWeight(BlameCacheImpl.DEFAULT_MAXIMUM_WEIGHT);
+    }
+    return weighed;
+  }
+
+  private void setDefaultHighlightCache() {
+    if (highlightCache == null) {
+      if (config.getSubsections("cache").contains("highlight")) {
+        CacheBuilder<Object, Object> builder = ConfigUtil.getCacheBuilder(config, "highlight");
+        if (config.getString("cache", "highlight", "maximumSize") != null) {
+          highlightCache = new HighlightCache(builder, SyntaxHighlighter.DEFAULT);
+          return;
+        }
+        CacheBuilder<HighlightCache.Key, Highlights> weighed = HighlightCache.weigher(builder);
+        if (config.getString("cache", "highlight", "maximumWeight") == null) {
+          weighed.maximumWeight(HighlightCache.DEFAULT_MAXIMUM_WEIGHT);
+        }
+        highlightCache = new HighlightCache(weighed, SyntaxHighlighter.DEFAULT);
+      } else {
+        highlightCache = new HighlightCache();
+      }
+    }
+  }
+
+  private void setDefaultChangedPathCache() {
+    if (changedPathCache == null) {
+      if (config.getSubsections("cache").contains("changedPaths")) {
+        CacheBuilder<Object, Object> builder = ConfigUtil.getCacheBuilder(config, "changedPaths");
+        if (config.getString("cache", "changedPaths", "maximumSize") != null) {
+          changedPathCache = new ChangedPathCache(builder);
+          return;
+        }
+        CacheBuilder<ObjectId, ChangedPathCache.Filter> weighed =
+            ChangedPathCache.weigher(builder);
+        if (config.getString("cache", "changedPaths", "maximumWeight") == null) {
+          weighed.maximumWeight(ChangedPathCache.DEFAULT_MAXIMUM_WEIGHT);
+        }
+        changedPathCache = new ChangedPathCache(weighed);
+      }
+    }
+  }
+
+  private void setDefaultRefsByIdCache() {
+    if (refsByIdCache == null) {
+      if (config.getSubsections("cache").contains("refsById")) {
+        CacheBuilder<Object, Object> builder = ConfigUtil.getCacheBuilder(config, "refsById");
+        if (config.getString("cache", "refsById", "maximumSize") != null) {
+          refsByIdCache = new RefsByIdCache(builder);
+          return;
+        }
+        CacheBuilder<ObjectId, RefsByIdIndex> weighed = RefsByIdCache.weigher(builder);
+        if (config.getString("cache", "refsById", "maximumWeight") == null) {
+          weighed.maximumWeight(RefsByIdCache.DEFAULT_MAXIMUM_WEIGHT);
+        }
+        refsByIdCache = new RefsByIdCache(weighed);
+      } else {
+        refsByIdCache = new RefsByIdCache();
+      }
+    }
+  }
+
+  private void setDefaultResponseCache() {
+    // Unlike the other caches, the response cache is only enabled when configured.
+    if (responseCache == null && config.getSubsections("cache").contains("responses")) {
+      CacheBuilder<Object, Object> builder = ConfigUtil.getCacheBuilder(config, "responses");
+      int maximumEntrySize =
+          config.getInt(
+              "cache",
+              "responses",
+              "maximumEntrySize",
+              ResponseCacheFilter.DEFAULT_MAXIMUM_ENTRY_SIZE);
+      if (config.getString("cache", "responses", "maximumSize") != null) {
+        responseCache = new ResponseCacheFilter(accessFactory, builder, maximumEntrySize);
+        return;
+      }
+      CacheBuilder<ResponseCacheFilter.Key, ResponseCacheFilter.Entry> weighed =
+          ResponseCacheFilter.weigher(builder);
+      if (config.getString("cache", "responses", "maximumWeight") == null) {
+        weighed.maximumWeight(ResponseCacheFilter.DEFAULT_MAXIMUM_WEIGHT);
+      }
+      responseCache = new ResponseCacheFilter(accessFactory, weighed, maximumEntrySize);
+    }
+  }
+
+  private void setCompressionLevel() {
+    if (config.getString("gitiles", null, "compressionLevel") != null) {
+      Gzip.setLevel(config.getInt("gitiles", null, "compressionLevel", Gzip.getLevel()));
+    }
+  }
+
+  @Nullable
+  private FileBlameStore getBlameStore() throws ServletException {
+    String dir = config.getString("cache", "blame", "directory");
+    if (dir == null) {
+      return null;
+    }
+    try {
+      return new FileBlameStore(
+          Paths.get(dir), config.getLong("cache", "blame", "maximumDiskSize", 1L << 30));
+    } catch (IOException e) {
+      throw new ServletException(e);
+    }
+  }
+
+  @Nullable
+  private FileTagTimeStore getTagTimeStore() throws ServletException {
+    String dir = config.getString("cache", "tagTime", "directory");
+    if (dir == null) {
+      return null;
+    }
+    try {
+      return new FileTagTimeStore(Paths.get(dir));
+    } catch (IOException e) {
+      throw new ServletException(e);
+    }
+  }
+
   private void setDefaultGitwebRedirect() {
     if (gitwebRedirect == null) {
       if (config.getBoolean("gitiles", null, "redirectGitweb", true)) {
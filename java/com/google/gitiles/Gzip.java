@@ -0,0 +1,170 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Gzip compression of response bodies.
+ *
+ * <p>Streams share a bounded pool of {@link Deflater}s, which hold large native buffers and are
+ * expensive to create for every response.
+ */
+public final class Gzip {
+  private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+  private static final int MIN_BUFFER_SIZE = 512;
+  private static final int MAX_BUFFER_SIZE = 64 << 10;
+
+  private static final ArrayBlockingQueue<Deflater> pool =
+      new ArrayBlockingQueue<>(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+  private static volatile int level = Deflater.DEFAULT_COMPRESSION;
+
+  /**
+   * Set the compression level of subsequently created streams.
+   *
+   * @param level level from 0 (none) to 9 (best), or -1 for the zlib default.
+   */
+  public static void setLevel(int level) {
+    checkArgument(
+        level == Deflater.DEFAULT_COMPRESSION
+            || (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION),
+        "invalid compression level: %s",
+        level);
+    Gzip.level = level;
+  }
+
+  /** @return the current compression level. */
+  public static int getLevel() {
+    return level;
+  }
+
+  /**
+   * Open a stream compressing to another stream.
+   *
+   * <p>Flushing the returned stream emits all data written so far, so that streamed responses
+   * reach the client promptly. Closing it finishes the gzip member, closes {@code out} and returns
+   * the deflater to the pool.
+   *
+   * @param out stream to write compressed data to.
+   * @param sizeHint expected number of uncompressed bytes, or -1 if unknown; used to size the
+   *     output buffer.
+   * @return stream to write uncompressed data to.
+   * @throws IOException if the gzip header could not be written.
+   */
+  public static OutputStream compress(OutputStream out, int sizeHint) throws IOException {
+    int size = sizeHint < 0 ? MAX_BUFFER_SIZE / 8 : sizeHint / 4;
+    return new PooledGzipOutputStream(
+        out, acquire(), Math.min(Math.max(size, MIN_BUFFER_SIZE), MAX_BUFFER_SIZE));
+  }
+
+  /**
+   * Compress a byte array.
+   *
+   * @param raw uncompressed data.
+   * @return gzip-compressed data.
+   * @throws IOException if an error occurred compressing.
+   */
+  public static byte[] compress(byte[] raw) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + HEADER.length + 8);
+    try (OutputStream gz = compress(out, raw.length)) {
+      gz.write(raw);
+    }
+    return out.toByteArray();
+  }
+
+  private static Deflater acquire() {
+    Deflater def = pool.poll();
+    if (def == null) {
+      return new Deflater(level, true);
+    }
+    def.setLevel(level);
+    return def;
+  }
+
+  private static void release(Deflater def) {
+    def.reset();
+    if (!pool.offer(def)) {
+      def.end();
+    }
+  }
+
+  private static class PooledGzipOutputStream extends DeflaterOutputStream {
+    private final CRC32 crc = new CRC32();
+    private boolean finished;
+    private boolean closed;
+
+    PooledGzipOutputStream(OutputStream out, Deflater def, int size) throws IOException {
+      super(out, def, size, true);
+      try {
+        out.write(HEADER);
+      } catch (IOException e) {
+        release(def);
+        throw e;
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      super.write(b, off, len);
+      crc.update(b, off, len);
+    }
+
+    @Override
+    public void finish() throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (!finished) {
+        super.finish();
+        finished = true;
+        long crcValue = crc.getValue();
+        long inputSize = def.getBytesRead();
+        byte[] trailer = new byte[8];
+        for (int i = 0; i < 4; i++) {
+          trailer[i] = (byte) (crcValue >>> (8 * i));
+          trailer[4 + i] = (byte) (inputSize >>> (8 * i));
+        }
+        out.write(trailer);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      try {
+        finish();
+        out.close();
+      } finally {
+        closed = true;
+        release(def);
+      }
+    }
+  }
+
+  private Gzip() {}
+}
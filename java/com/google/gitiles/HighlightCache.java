@@ -0,0 +1,126 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static java.util.Objects.hash;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Cache of syntax highlighting results, keyed by blob and language.
+ *
+ * <p>A blob's contents never change, so highlighting it once serves every view of it at any
+ * revision where it is unchanged. Entries are weighed by their estimated size in bytes.
+ */
+public class HighlightCache {
+  /** Default maximum weight of the cache, in bytes. */
+  public static final long DEFAULT_MAXIMUM_WEIGHT = 16 << 20;
+
+  public static CacheBuilder<Key, Highlights> defaultBuilder() {
+    return weigher(CacheBuilder.newBuilder()).maximumWeight(DEFAULT_MAXIMUM_WEIGHT);
+  }
+
+  public static CacheBuilder<Key, Highlights> weigher(
+      CacheBuilder<? super Key, ? super Highlights> builder) {
+    return builder.weigher((k, v) -> KEY_WEIGHT + v.getWeight());
+  }
+
+  // Key, ObjectId, language string and cache entry overhead.
+  private static final int KEY_WEIGHT = 128;
+
+  public static class Key {
+    private final ObjectId blobId;
+    @Nullable private final String lang;
+
+    public Key(ObjectId blobId, @Nullable String lang) {
+      this.blobId = blobId.copy();
+      this.lang = lang;
+    }
+
+    public ObjectId getBlobId() {
+      return blobId;
+    }
+
+    @Nullable
+    public String getLanguage() {
+      return lang;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof Key) {
+        Key k = (Key) o;
+        return blobId.equals(k.blobId) && Objects.equals(lang, k.lang);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash(blobId, lang);
+    }
+
+    @Override
+    public String toString() {
+      return blobId.name() + ":" + lang;
+    }
+  }
+
+  private final Cache<Key, Highlights> cache;
+  private final SyntaxHighlighter highlighter;
+
+  public HighlightCache() {
+    this(defaultBuilder(), SyntaxHighlighter.DEFAULT);
+  }
+
+  public HighlightCache(
+      CacheBuilder<? super Key, ? super Highlights> builder, SyntaxHighlighter highlighter) {
+    this.cache = builder.build();
+    this.highlighter = highlighter;
+  }
+
+  public Cache<Key, Highlights> getCache() {
+    return cache;
+  }
+
+  /**
+   * Highlight the contents of a blob.
+   *
+   * @param blobId id of the blob.
+   * @param lang language of the blob, or null if unknown.
+   * @param text decoded contents of the blob.
+   * @return highlighted ranges; empty if the highlighter did not handle the text.
+   */
+  public Highlights get(ObjectId blobId, @Nullable String lang, String text) {
+    try {
+      return cache.get(
+          new Key(blobId, lang),
+          () -> {
+            Highlights h = highlighter.highlight(lang, text);
+            return h != null ? h : Highlights.empty();
+          });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e);
+    }
+  }
+}
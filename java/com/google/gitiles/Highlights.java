@@ -0,0 +1,144 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Styled ranges of a text, as produced by a {@link SyntaxHighlighter}.
+ *
+ * <p>Ranges are non-overlapping and in order. Text not covered by any range is plain. Ranges are
+ * stored as parallel primitive arrays, with styles deduplicated into a small table, so the result
+ * is cheap to build and to keep around.
+ */
+public final class Highlights {
+  private static final Highlights EMPTY = new Builder().build();
+
+  public static Highlights empty() {
+    return EMPTY;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private final List<String> styles = new ArrayList<>();
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private short[] styleIds = new short[16];
+    private int size;
+
+    private Builder() {}
+
+    /**
+     * Add a range.
+     *
+     * @param start start offset of the range, inclusive; must not be before the end of the last
+     *     range.
+     * @param end end offset of the range, exclusive.
+     * @param style space-separated CSS classes for the range.
+     * @return this builder.
+     */
+    public Builder add(int start, int end, String style) {
+      checkArgument(
+          start <= end && (size == 0 || start >= ends[size - 1]),
+          "out-of-order range [%s, %s)",
+          start,
+          end);
+      if (start == end) {
+        return this;
+      }
+      if (size == starts.length) {
+        int n = size * 2;
+        starts = Arrays.copyOf(starts, n);
+        ends = Arrays.copyOf(ends, n);
+        styleIds = Arrays.copyOf(styleIds, n);
+      }
+      starts[size] = start;
+      ends[size] = end;
+      styleIds[size] = styleId(style);
+      size++;
+      return this;
+    }
+
+    private short styleId(String style) {
+      // Highlighters use a handful of styles, so a linear scan beats hashing.
+      for (int i = styles.size() - 1; i >= 0; i--) {
+        if (styles.get(i).equals(style)) {
+          return (short) i;
+        }
+      }
+      checkArgument(styles.size() < Short.MAX_VALUE, "too many styles");
+      styles.add(style);
+      return (short) (styles.size() - 1);
+    }
+
+    public Highlights build() {
+      return new Highlights(
+          styles.toArray(new String[0]),
+          Arrays.copyOf(starts, size),
+          Arrays.copyOf(ends, size),
+          Arrays.copyOf(styleIds, size));
+    }
+  }
+
+  private final String[] styles;
+  private final int[] starts;
+  private final int[] ends;
+  private final short[] styleIds;
+
+  private Highlights(String[] styles, int[] starts, int[] ends, short[] styleIds) {
+    this.styles = styles;
+    this.starts = starts;
+    this.ends = ends;
+    this.styleIds = styleIds;
+  }
+
+  /** @return number of ranges. */
+  public int size() {
+    return starts.length;
+  }
+
+  public boolean isEmpty() {
+    return starts.length == 0;
+  }
+
+  /** @return start offset of the {@code i}th range, inclusive. */
+  public int getStart(int i) {
+    return starts[i];
+  }
+
+  /** @return end offset of the {@code i}th range, exclusive. */
+  public int getEnd(int i) {
+    return ends[i];
+  }
+
+  /** @return space-separated CSS classes of the {@code i}th range. */
+  public String getStyle(int i) {
+    return styles[styleIds[i]];
+  }
+
+  /** @return estimated number of bytes retained by this object. */
+  public int getWeight() {
+    // Object and array headers, plus the per-range arrays. Style strings are almost always
+    // shared constants, so only the references to them are counted.
+    return 80 + 8 * styles.length + 10 * starts.length;
+  }
+}
@@ -0,0 +1,458 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import com.google.common.base.Ascii;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import javax.annotation.Nullable;
+
+/**
+ * Single-pass tokenizer for a fixed set of common languages.
+ *
+ * <p>Highlighting is purely lexical: comments, strings, numbers, keywords, punctuation and, where
+ * conventional, capitalized type names. The scanner never backtracks, so it runs in time linear in
+ * the size of the input with bounded stack depth, and allocates little beyond its output.
+ *
+ * <p>Languages other than C/C++, Java, Python, Go, JavaScript, shell, protocol buffers and GN are
+ * not handled, and should be delegated to a fallback such as {@link PrettifyHighlighter}.
+ */
+public class LexicalHighlighter implements SyntaxHighlighter {
+  private static final String COMMENT = "com";
+  private static final String KEYWORD = "kwd";
+  private static final String LITERAL = "lit";
+  private static final String PUNCTUATION = "pun";
+  private static final String STRING = "str";
+  private static final String TYPE = "typ";
+
+  private static final String PUNCTUATION_CHARS = "!%&()*+,-./:;<=>?@[\\]^{|}~";
+
+  private static final ImmutableMap<String, Language> LANGUAGES;
+
+  static {
+    Language c =
+        new Language(
+                "alignas alignof asm auto bool break case catch char char16_t char32_t class const"
+                    + " constexpr const_cast continue decltype default delete do double"
+                    + " dynamic_cast else enum explicit export extern false final float for friend"
+                    + " goto if inline int long mutable namespace new noexcept nullptr operator"
+                    + " override private protected public register reinterpret_cast return short"
+                    + " signed sizeof static static_assert static_cast struct switch template this"
+                    + " thread_local throw true try typedef typeid typename union unsigned using"
+                    + " virtual void volatile wchar_t while NULL")
+            .cComments()
+            .preprocessor()
+            .stringPrefixes("LuU8R")
+            .types();
+    Language java =
+        new Language(
+                "abstract assert boolean break byte case catch char class const continue default"
+                    + " do double else enum extends false final finally float for goto if"
+                    + " implements import instanceof int interface long native new null package"
+                    + " private protected public return short static strictfp super switch"
+                    + " synchronized this throw throws transient true try var void volatile while")
+            .cComments()
+            .types();
+    Language python =
+        new Language(
+                "False None True and as assert async await break class continue def del elif"
+                    + " else except finally for from global if import in is lambda nonlocal not or"
+                    + " pass raise return self try while with yield")
+            .hashComments()
+            .tripleQuotes()
+            .stringPrefixes("rRbBfFuU");
+    Language go =
+        new Language(
+                "break case chan const continue default defer else fallthrough for func go goto"
+                    + " if import interface map package range return select struct switch type var"
+                    + " nil true false iota bool byte complex64 complex128 error float32 float64"
+                    + " int int8 int16 int32 int64 rune string uint uint8 uint16 uint32 uint64"
+                    + " uintptr")
+            .cComments()
+            .rawQuote('`')
+            .types();
+    Language js =
+        new Language(
+                "async await break case catch class const continue debugger default delete do"
+                    + " else export extends false finally for function if import in instanceof let"
+                    + " new null of return static super switch this throw true try typeof"
+                    + " undefined var void while with yield")
+            .cComments()
+            .quotes("\"'`")
+            .types();
+    Language shell =
+        new Language(
+                "if then else elif fi case esac for while until do done in function select time"
+                    + " return break continue exit export local readonly declare set unset shift"
+                    + " source alias eval exec trap")
+            .shellComments()
+            .multilineStrings()
+            .rawSingleQuotes();
+    Language proto =
+        new Language(
+                "syntax package import public weak option message enum service rpc returns"
+                    + " stream oneof map repeated optional required reserved extensions extend to"
+                    + " max group true false double float int32 int64 uint32 uint64 sint32 sint64"
+                    + " fixed32 fixed64 sfixed32 sfixed64 bool string bytes")
+            .cComments()
+            .types();
+    Language gn =
+        new Language(
+                "if else true false import template declare_args defined foreach"
+                    + " forward_variables_from assert")
+            .hashComments()
+            .quotes("\"");
+
+    ImmutableMap.Builder<String, Language> b = ImmutableMap.builder();
+    put(b, c, "c", "h", "cc", "cpp", "cxx", "c++", "hh", "hpp", "hxx", "h++", "inl", "ipp");
+    put(b, java, "java");
+    put(b, python, "py", "python", "python3", "pyw", "gyp", "gypi");
+    put(b, go, "go", "golang");
+    put(b, js, "js", "javascript", "mjs", "cjs");
+    put(b, shell, "sh", "bash", "shell", "ksh", "zsh");
+    put(b, proto, "proto", "protobuf");
+    put(b, gn, "gn", "gni");
+    LANGUAGES = b.build();
+  }
+
+  private static void put(
+      ImmutableMap.Builder<String, Language> b, Language lang, String... names) {
+    for (String name : names) {
+      b.put(name, lang);
+    }
+  }
+
+  @Override
+  @Nullable
+  public Highlights highlight(@Nullable String lang, String text) {
+    if (lang == null) {
+      return null;
+    }
+    Language l = LANGUAGES.get(Ascii.toLowerCase(lang));
+    return l != null ? new Scanner(l, text).scan() : null;
+  }
+
+  /** Lexical rules of a language. Only mutated during static initialization. */
+  private static class Language {
+    private final ImmutableSet<String> keywords;
+    private final int maxKeywordLength;
+    private boolean cComments;
+    private boolean hashComments;
+    private boolean shellComments;
+    private boolean preprocessor;
+    private String quotes = "\"'";
+    private String stringPrefixes = "";
+    private boolean tripleQuotes;
+    private boolean multilineStrings;
+    private boolean rawSingleQuotes;
+    private char rawQuote;
+    private boolean types;
+
+    private Language(String keywords) {
+      this.keywords = ImmutableSet.copyOf(Splitter.on(' ').split(keywords));
+      this.maxKeywordLength = this.keywords.stream().mapToInt(String::length).max().orElse(0);
+    }
+
+    /** C-style {@code //} and {@code /* *}{@code /} comments. */
+    private Language cComments() {
+      cComments = true;
+      return this;
+    }
+
+    /** {@code #} comments anywhere. */
+    private Language hashComments() {
+      hashComments = true;
+      return this;
+    }
+
+    /** {@code #} comments, but only at the start of a word. */
+    private Language shellComments() {
+      hashComments = true;
+      shellComments = true;
+      return this;
+    }
+
+    /** C preprocessor directives. */
+    private Language preprocessor() {
+      preprocessor = true;
+      return this;
+    }
+
+    private Language quotes(String quotes) {
+      this.quotes = quotes;
+      return this;
+    }
+
+    /** Letters that may immediately precede a quote as part of a string literal. */
+    private Language stringPrefixes(String prefixes) {
+      this.stringPrefixes = prefixes;
+      return this;
+    }
+
+    private Language tripleQuotes() {
+      tripleQuotes = true;
+      return this;
+    }
+
+    private Language multilineStrings() {
+      multilineStrings = true;
+      return this;
+    }
+
+    /** Single-quoted strings without escapes. */
+    private Language rawSingleQuotes() {
+      rawSingleQuotes = true;
+      return this;
+    }
+
+    /** Quote for multi-line strings without escapes. */
+    private Language rawQuote(char q) {
+      rawQuote = q;
+      return this;
+    }
+
+    /** Capitalized identifiers are types. */
+    private Language types() {
+      types = true;
+      return this;
+    }
+  }
+
+  private static class Scanner {
+    private final Language lang;
+    private final String s;
+    private final int n;
+    private final Highlights.Builder out = Highlights.builder();
+
+    private Scanner(Language lang, String s) {
+      this.lang = lang;
+      this.s = s;
+      this.n = s.length();
+    }
+
+    private Highlights scan() {
+      boolean lineStart = true;
+      int i = 0;
+      while (i < n) {
+        char c = s.charAt(i);
+        if (c == '\n') {
+          lineStart = true;
+          i++;
+          continue;
+        } else if (isSpace(c)) {
+          i++;
+          continue;
+        }
+        boolean atLineStart = lineStart;
+        lineStart = false;
+
+        int start = i;
+        if (startsComment(i)) {
+          i = c == '/' && s.charAt(i + 1) == '*' ? blockCommentEnd(i) : lineEnd(i);
+          out.add(start, i, COMMENT);
+        } else if (c == '#' && lang.preprocessor && atLineStart) {
+          i = directive(i);
+        } else if (lang.quotes.indexOf(c) >= 0) {
+          i = stringEnd(i);
+          out.add(start, i, STRING);
+        } else if (c == lang.rawQuote) {
+          int e = s.indexOf(c, i + 1);
+          i = e >= 0 ? e + 1 : n;
+          out.add(start, i, STRING);
+        } else if (isDigit(c) || (c == '.' && i + 1 < n && isDigit(s.charAt(i + 1)))) {
+          i = numberEnd(i);
+          out.add(start, i, LITERAL);
+        } else if (isIdentifierStart(c)) {
+          i = identifier(i);
+        } else if (PUNCTUATION_CHARS.indexOf(c) >= 0) {
+          i++;
+          while (i < n && PUNCTUATION_CHARS.indexOf(s.charAt(i)) >= 0 && !startsComment(i)) {
+            i++;
+          }
+          out.add(start, i, PUNCTUATION);
+        } else {
+          i++;
+        }
+      }
+      return out.build();
+    }
+
+    private boolean startsComment(int i) {
+      char c = s.charAt(i);
+      if (c == '/' && lang.cComments && i + 1 < n) {
+        char d = s.charAt(i + 1);
+        return d == '/' || d == '*';
+      } else if (c == '#' && lang.hashComments) {
+        if (!lang.shellComments || i == 0) {
+          return true;
+        }
+        char p = s.charAt(i - 1);
+        return isSpace(p) || p == '\n' || p == ';' || p == '(' || p == '|' || p == '&';
+      }
+      return false;
+    }
+
+    private int lineEnd(int i) {
+      int e = s.indexOf('\n', i);
+      return e >= 0 ? e : n;
+    }
+
+    private int blockCommentEnd(int i) {
+      int e = s.indexOf("*/", i + 2);
+      return e >= 0 ? e + 2 : n;
+    }
+
+    /** Scan a preprocessor directive, highlighting {@code #name} and any {@code <header>}. */
+    private int directive(int i) {
+      int start = i++;
+      while (i < n && isSpace(s.charAt(i))) {
+        i++;
+      }
+      while (i < n && isIdentifierPart(s.charAt(i))) {
+        i++;
+      }
+      out.add(start, i, KEYWORD);
+      while (i < n && isSpace(s.charAt(i))) {
+        i++;
+      }
+      if (i < n && s.charAt(i) == '<') {
+        int nl = lineEnd(i);
+        int e = i + 1;
+        while (e < nl && s.charAt(e) != '>') {
+          e++;
+        }
+        if (e < nl) {
+          out.add(i, e + 1, STRING);
+          i = e + 1;
+        }
+      }
+      return i;
+    }
+
+    private int stringEnd(int i) {
+      char q = s.charAt(i);
+      if (lang.tripleQuotes
+          && i + 2 < n
+          && s.charAt(i + 1) == q
+          && s.charAt(i + 2) == q) {
+        int j = i + 3;
+        while (j < n) {
+          char c = s.charAt(j);
+          if (c == '\\') {
+            j += 2;
+          } else if (c == q && j + 2 < n && s.charAt(j + 1) == q && s.charAt(j + 2) == q) {
+            return j + 3;
+          } else {
+            j++;
+          }
+        }
+        return n;
+      }
+
+      boolean raw = q == '\'' && lang.rawSingleQuotes;
+      boolean multiline = lang.multilineStrings || q == '`';
+      int j = i + 1;
+      while (j < n) {
+        char c = s.charAt(j);
+        if (c == '\\' && !raw) {
+          j += 2;
+        } else if (c == q) {
+          return j + 1;
+        } else if (c == '\n' && !multiline) {
+          return j;
+        } else {
+          j++;
+        }
+      }
+      return n;
+    }
+
+    private int numberEnd(int i) {
+      boolean hex = s.charAt(i) == '0' && i + 1 < n && (s.charAt(i + 1) | 0x20) == 'x';
+      int j = i + 1;
+      while (j < n) {
+        char c = s.charAt(j);
+        if (isIdentifierPart(c) || c == '.') {
+          j++;
+        } else if ((c == '+' || c == '-') && !hex && (s.charAt(j - 1) | 0x20) == 'e') {
+          j++;
+        } else {
+          break;
+        }
+      }
+      return j;
+    }
+
+    private int identifier(int i) {
+      int start = i++;
+      while (i < n && isIdentifierPart(s.charAt(i))) {
+        i++;
+      }
+      int len = i - start;
+      if (i < n && lang.quotes.indexOf(s.charAt(i)) >= 0 && isStringPrefix(start, i)) {
+        i = stringEnd(i);
+        out.add(start, i, STRING);
+      } else if (len <= lang.maxKeywordLength && lang.keywords.contains(s.substring(start, i))) {
+        out.add(start, i, KEYWORD);
+      } else if (lang.types && isUpperCase(s.charAt(start)) && hasLowerCase(start, i)) {
+        out.add(start, i, TYPE);
+      }
+      return i;
+    }
+
+    private boolean isStringPrefix(int start, int end) {
+      if (end - start > 2) {
+        return false;
+      }
+      for (int i = start; i < end; i++) {
+        if (lang.stringPrefixes.indexOf(s.charAt(i)) < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean hasLowerCase(int start, int end) {
+      for (int i = start; i < end; i++) {
+        char c = s.charAt(i);
+        if (c >= 'a' && c <= 'z') {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\r' || c == '\f';
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isUpperCase(char c) {
+    return c >= 'A' && c <= 'Z';
+  }
+
+  private static boolean isIdentifierStart(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c > 0x7f;
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return isIdentifierStart(c) || isDigit(c);
+  }
+}
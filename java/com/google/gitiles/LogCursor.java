@@ -0,0 +1,223 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Position in a log walk from which the next page can be produced without walking from the tips.
+ *
+ * <p>A cursor holds the first commit of the page, the first commit of the page before it, and the
+ * state of the walk when the preceding page ended: its frontier, the commits that had been queued
+ * but not yet walked, and its horizon, the walked commits no more recent than the newest commit in
+ * the frontier. Starting a new walk at the frontier and skipping the horizon produces the rest of
+ * the original walk, unless clock skew leads it to a commit more recent than the frontier, which
+ * may have been walked already. Cursors are signed, since they may name any commit; a signature is
+ * only valid for the tips of the walk it was created from.
+ */
+final class LogCursor {
+  /** Largest total size of frontier and horizon for which a cursor is issued. */
+  static final int MAX_COMMITS = 32;
+
+  private static final int MAC_BYTES = 8;
+  private static final char ID_SEPARATOR = '-';
+  private static final byte[] PROCESS_KEY = newProcessKey();
+
+  private static byte[] newProcessKey() {
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+    return key;
+  }
+
+  /**
+   * Create a function for signing cursors.
+   *
+   * @param secret key shared by all servers that may serve the same URLs; if null, a key private
+   *     to this process is used, and other processes will not accept its cursors.
+   * @param tip commit the walk started from.
+   * @param oldTip commit excluded from the walk, or null.
+   * @return MAC function.
+   */
+  static HashFunction newMac(@Nullable String secret, ObjectId tip, @Nullable ObjectId oldTip) {
+    byte[] s = secret != null ? secret.getBytes(UTF_8) : PROCESS_KEY;
+    byte[] key = new byte[s.length + 2 * Constants.OBJECT_ID_LENGTH];
+    System.arraycopy(s, 0, key, 0, s.length);
+    tip.copyRawTo(key, s.length);
+    (oldTip != null ? oldTip : ObjectId.zeroId())
+        .copyRawTo(key, s.length + Constants.OBJECT_ID_LENGTH);
+    return Hashing.hmacSha256(key);
+  }
+
+  /**
+   * Decode a cursor.
+   *
+   * @param value value of the start parameter.
+   * @param mac function that signed the cursor.
+   * @return the cursor, or null if the value is not a cursor or its signature is not valid.
+   */
+  @Nullable
+  static LogCursor decode(String value, HashFunction mac) {
+    int dot = value.lastIndexOf('.');
+    if (dot < 0) {
+      return null;
+    }
+    String data = value.substring(0, dot);
+    List<String> parts = Splitter.on('.').splitToList(data);
+    if (parts.size() != 4) {
+      return null;
+    }
+    byte[] actual;
+    try {
+      actual = BaseEncoding.base16().lowerCase().decode(value.substring(dot + 1));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (!MessageDigest.isEqual(actual, sign(data, mac))) {
+      return null;
+    }
+
+    String start = parts.get(0);
+    String prev = parts.get(1);
+    List<ObjectId> frontier = parseIds(parts.get(2));
+    List<ObjectId> horizon = parseIds(parts.get(3));
+    if (!ObjectId.isId(start)
+        || (!prev.isEmpty() && !ObjectId.isId(prev))
+        || frontier == null
+        || horizon == null) {
+      return null;
+    }
+    return new LogCursor(
+        ObjectId.fromString(start),
+        prev.isEmpty() ? null : ObjectId.fromString(prev),
+        frontier,
+        horizon);
+  }
+
+  @Nullable
+  private static List<ObjectId> parseIds(String s) {
+    ImmutableList.Builder<ObjectId> ids = ImmutableList.builder();
+    for (String id : Splitter.on(ID_SEPARATOR).omitEmptyStrings().split(s)) {
+      if (!ObjectId.isId(id)) {
+        return null;
+      }
+      ids.add(ObjectId.fromString(id));
+    }
+    return ids.build();
+  }
+
+  /**
+   * Get the commit at which a start parameter points.
+   *
+   * @param value value of the start parameter, either an abbreviated commit ID or an encoded
+   *     cursor.
+   * @return the abbreviated ID of the first commit of the page.
+   */
+  static String getStartId(String value) {
+    int dot = value.indexOf('.');
+    return dot < 0 ? value : value.substring(0, dot);
+  }
+
+  private static byte[] sign(String data, HashFunction mac) {
+    byte[] full = mac.hashString(data, UTF_8).asBytes();
+    byte[] truncated = new byte[MAC_BYTES];
+    System.arraycopy(full, 0, truncated, 0, MAC_BYTES);
+    return truncated;
+  }
+
+  private final ObjectId start;
+  @Nullable private final ObjectId previous;
+  private final ImmutableList<ObjectId> frontier;
+  private final ImmutableList<ObjectId> horizon;
+
+  LogCursor(
+      ObjectId start,
+      @Nullable ObjectId previous,
+      Collection<? extends ObjectId> frontier,
+      Collection<? extends ObjectId> horizon) {
+    this.start = checkNotNull(start).copy();
+    this.previous = previous != null ? previous.copy() : null;
+    this.frontier = copyOf(frontier);
+    this.horizon = copyOf(horizon);
+  }
+
+  private static ImmutableList<ObjectId> copyOf(Collection<? extends ObjectId> ids) {
+    ImmutableList.Builder<ObjectId> b = ImmutableList.builderWithExpectedSize(ids.size());
+    for (ObjectId id : ids) {
+      b.add(id.copy());
+    }
+    return b.build();
+  }
+
+  /** @return first commit of the page. */
+  ObjectId getStart() {
+    return start;
+  }
+
+  /** @return first commit of the preceding page, or null if unknown. */
+  @Nullable
+  ObjectId getPrevious() {
+    return previous;
+  }
+
+  /** @return commits queued but not yet walked when the preceding page ended. */
+  ImmutableList<ObjectId> getFrontier() {
+    return frontier;
+  }
+
+  /** @return walked commits that the frontier may still reach, which must not be walked again. */
+  ImmutableList<ObjectId> getHorizon() {
+    return horizon;
+  }
+
+  /**
+   * Encode this cursor as a start parameter.
+   *
+   * @param mac function to sign the cursor with.
+   * @return encoded cursor.
+   */
+  String encode(HashFunction mac) {
+    StringBuilder sb = new StringBuilder().append(start.name()).append('.');
+    if (previous != null) {
+      sb.append(previous.name());
+    }
+    appendIds(sb.append('.'), frontier);
+    appendIds(sb.append('.'), horizon);
+    String data = sb.toString();
+    return data + '.' + BaseEncoding.base16().lowerCase().encode(sign(data, mac));
+  }
+
+  private static void appendIds(StringBuilder sb, List<ObjectId> ids) {
+    for (int i = 0; i < ids.size(); i++) {
+      if (i > 0) {
+        sb.append(ID_SEPARATOR);
+      }
+      sb.append(ids.get(i).name());
+    }
+  }
+}
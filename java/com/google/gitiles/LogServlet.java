@@ -15,27 +15,36 @@
 package com.google.gitiles;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
 import com.google.common.primitives.Longs;
 import com.google.gitiles.CommitData.Field;
+import com.google.gitiles.CommitData.MergeDiff;
 import com.google.gitiles.DateFormatter.Format;
 import com.google.gitiles.GitilesRequestFailureException.FailureReason;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jgit.diff.DiffConfig;
@@ -43,6 +52,7 @@ import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.http.server.ServletUtils;
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
@@ -68,21 +78,69 @@ public class LogServlet extends BaseServlet {
   static final String LIMIT_PARAM = "n";
   static final String START_PARAM = "s";
 
+  private static final ImmutableSet<Field> BODY_FIELDS =
+      Sets.immutableEnumSet(Field.AUTHOR, Field.COMMITTER, Field.MESSAGE, Field.SHORT_MESSAGE);
+
+  private static final String NDJSON_TYPE = "application/x-ndjson";
+  private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
   private static final String FOLLOW_PARAM = "follow";
   private static final String NAME_STATUS_PARAM = "name-status";
   private static final String PRETTY_PARAM = "pretty";
   private static final String TOPO_ORDER_PARAM = "topo-order";
   private static final String REVERSE_PARAM = "reverse";
   private static final String FIRST_PARENT_PARAM = "first-parent";
+  private static final String NDJSON_PARAM = "ndjson";
 
   private static final int DEFAULT_LIMIT = 100;
   private static final int MAX_LIMIT = 10000;
 
   private final Linkifier linkifier;
+  @Nullable private final ChangedPathCache changedPathCache;
+  @Nullable private final RefsByIdCache refsByIdCache;
 
   public LogServlet(GitilesAccess.Factory accessFactory, Renderer renderer, Linkifier linkifier) {
+    this(accessFactory, renderer, linkifier, null, null);
+  }
+
+  public LogServlet(
+      GitilesAccess.Factory accessFactory,
+      Renderer renderer,
+      Linkifier linkifier,
+      @Nullable ChangedPathCache changedPathCache,
+      @Nullable RefsByIdCache refsByIdCache) {
     super(renderer, accessFactory);
     this.linkifier = checkNotNull(linkifier, "linkifier");
+    this.changedPathCache = changedPathCache;
+    this.refsByIdCache = refsByIdCache;
+  }
+
+  @Override
+  protected String getEtag(HttpServletRequest req, FormatType format) throws IOException {
+    if (isTrue(ViewFilter.getView(req), NDJSON_PARAM)) {
+      // The stream may stop early at a time limit, so its output is not a function of the refs.
+      return null;
+    }
+    Hasher h = newViewEtagHasher(req, format);
+    if (h == null) {
+      return null;
+    }
+    if (format == FormatType.HTML) {
+      // Commits in the HTML log are decorated with the branches and tags pointing at them.
+      byte[] b = new byte[Constants.OBJECT_ID_LENGTH];
+      for (Ref ref :
+          ServletUtils.getRepository(req)
+              .getRefDatabase()
+              .getRefsByPrefix(Constants.R_HEADS, Constants.R_TAGS)) {
+        h.putString(ref.getName(), UTF_8).putByte((byte) 0);
+        ObjectId id = ref.getObjectId();
+        if (id != null) {
+          id.copyRawTo(b, 0);
+          h.putBytes(b);
+        }
+      }
+    }
+    return toEtag(h);
   }
 
   @Override
@@ -127,6 +185,7 @@ public class LogServlet extends BaseServlet {
       try (OutputStream out = startRenderStreamingHtml(req, res, "gitiles.logDetail", data)) {
         Writer w = newWriter(out, res);
         new LogSoyData(req, access, pretty)
+            .setRefsByIdCache(refsByIdCache)
             .renderStreaming(paginator, null, renderer, w, df, LogSoyData.FooterBehavior.NEXT);
         w.flush();
       }
@@ -142,11 +201,17 @@ public class LogServlet extends BaseServlet {
     Repository repo = ServletUtils.getRepository(req);
     GitilesView view = getView(req, repo);
 
-    Set<Field> fs = Sets.newEnumSet(CommitJsonData.DEFAULT_FIELDS, Field.class);
+    Set<Field> fs = CommitJsonData.getFields(view, CommitJsonData.DEFAULT_FIELDS);
     String nameStatus = Iterables.getFirst(view.getParameters().get(NAME_STATUS_PARAM), null);
     if ("1".equals(nameStatus) || "".equals(nameStatus)) {
       fs.add(Field.DIFF_TREE);
     }
+    MergeDiff mergeDiff = CommitJsonData.getMergeDiff(view);
+
+    if (isTrue(view, NDJSON_PARAM)) {
+      renderNdjson(req, res, repo, view, fs, mergeDiff);
+      return;
+    }
 
     Paginator paginator = null;
     try {
@@ -155,20 +220,41 @@ public class LogServlet extends BaseServlet {
       if (paginator == null) {
         throw new GitilesRequestFailureException(FailureReason.OBJECT_NOT_FOUND);
       }
-      DateFormatter df = new DateFormatter(access, Format.DEFAULT);
-      CommitJsonData.Log result = new CommitJsonData.Log();
-      List<CommitJsonData.Commit> entries = Lists.newArrayListWithCapacity(paginator.getLimit());
-      for (RevCommit c : paginator) {
-        entries.add(new CommitJsonData().toJsonData(req, paginator.getWalk(), c, fs, df));
-      }
-      result.log = entries;
-      if (paginator.getPreviousStart() != null) {
-        result.previous = paginator.getPreviousStart().name();
-      }
-      if (paginator.getNextStart() != null) {
-        result.next = paginator.getNextStart().name();
+      if (Collections.disjoint(fs, BODY_FIELDS)) {
+        // Nothing will read messages or identities, so don't keep commit buffers around.
+        paginator.getWalk().setRetainBody(false);
       }
-      renderJson(req, res, result, new TypeToken<CommitJsonData.Log>() {}.getType());
+      DateFormatter df = new DateFormatter(access, Format.DEFAULT);
+      Paginator p = paginator;
+      // Stream the same structure as CommitJsonData.Log without holding the whole page.
+      renderJsonStreaming(
+          req,
+          res,
+          (gson, out) -> {
+            CommitJsonData cjd =
+                new CommitJsonData().setRefsByIdCache(refsByIdCache).setMergeDiff(mergeDiff);
+            out.beginObject();
+            out.name("log").beginArray();
+            try (DiffTreePrefetcher prefetcher =
+                fs.contains(Field.DIFF_TREE)
+                    ? DiffTreePrefetcher.create(repo, p, mergeDiff, access.getConfig())
+                    : null) {
+              cjd.setDiffTreePrefetcher(prefetcher);
+              for (RevCommit c : prefetcher != null ? prefetcher : p) {
+                gson.toJson(
+                    cjd.toJsonData(req, p.getWalk(), c, fs, df), CommitJsonData.Commit.class, out);
+              }
+            }
+            out.endArray();
+            if (p.getPreviousStart() != null) {
+              out.name("previous").value(p.getPreviousStart().name());
+            }
+            String next = p.getNextStartToken();
+            if (next != null) {
+              out.name("next").value(next);
+            }
+            out.endObject();
+          });
     } finally {
       if (paginator != null) {
         paginator.getWalk().close();
@@ -176,6 +262,88 @@ public class LogServlet extends BaseServlet {
     }
   }
 
+  /**
+   * Render the whole log as newline-delimited JSON, one commit object per line.
+   *
+   * <p>Unlike the paginated JSON log, commits are written as the walk produces them, and the
+   * output is flushed periodically so that clients can consume history in a single request. The
+   * number of commits is limited only by the {@code n} parameter and the {@code log.streamLimit}
+   * and {@code log.streamTimeout} configuration options; if either stops the output early, the
+   * last line is an object whose {@code next} property can be passed as the {@code s} parameter
+   * of a later request. As with other JSON responses, the first line is {@code )]}'}. Since the
+   * output depends on how long the walk takes, it is never cached.
+   */
+  private void renderNdjson(
+      HttpServletRequest req,
+      HttpServletResponse res,
+      Repository repo,
+      GitilesView view,
+      Set<Field> fs,
+      MergeDiff mergeDiff)
+      throws IOException {
+    GitilesAccess access = getAccess(req);
+    Config cfg = access.getConfig();
+    long limit = cfg.getLong("log", null, "streamLimit", 0);
+    List<String> n = view.getParameters().get(LIMIT_PARAM);
+    if (!n.isEmpty()) {
+      Long requested = Longs.tryParse(n.get(0));
+      if (requested != null && requested > 0 && (limit <= 0 || requested < limit)) {
+        limit = requested;
+      }
+    }
+    long timeout = cfg.getTimeUnit("log", null, "streamTimeout", 0, TimeUnit.MILLISECONDS);
+    long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+
+    try (RevWalk walk = newWalk(repo, view, access)) {
+      if (walk == null) {
+        throw new GitilesRequestFailureException(FailureReason.OBJECT_NOT_FOUND);
+      }
+      ObjectId start;
+      try {
+        start = getStart(view.getParameters(), walk.getObjectReader()).orElse(null);
+      } catch (InvalidStartValueException e) {
+        throw new GitilesRequestFailureException(FailureReason.OBJECT_NOT_FOUND, e);
+      }
+      if (Collections.disjoint(fs, BODY_FIELDS)) {
+        walk.setRetainBody(false);
+      }
+      RevCommit c = walk.next();
+      while (start != null && c != null && !start.equals(c)) {
+        c = walk.next();
+      }
+
+      DateFormatter df = new DateFormatter(access, Format.DEFAULT);
+      CommitJsonData cjd =
+          new CommitJsonData().setRefsByIdCache(refsByIdCache).setMergeDiff(mergeDiff);
+      Gson gson = newGsonBuilder(req).create();
+      try (Writer w = startRenderText(req, res, NDJSON_TYPE)) {
+        setNotCacheable(res);
+        w.write(")]}'\n");
+        JsonWriter out = new JsonWriter(w);
+        out.setLenient(true); // Allow multiple top-level values.
+        long count = 0;
+        long lastFlush = System.nanoTime() - FLUSH_INTERVAL_NANOS;
+        for (; c != null; c = walk.next()) {
+          long now = System.nanoTime();
+          if ((limit > 0 && count == limit) || (deadline != 0 && now - deadline >= 0)) {
+            out.beginObject().name("next").value(c.name()).endObject();
+            out.flush();
+            w.write('\n');
+            break;
+          }
+          gson.toJson(cjd.toJsonData(req, walk, c, fs, df), CommitJsonData.Commit.class, out);
+          out.flush();
+          w.write('\n');
+          count++;
+          if (now - lastFlush >= FLUSH_INTERVAL_NANOS) {
+            w.flush();
+            lastFlush = now;
+          }
+        }
+      }
+    }
+  }
+
   private static GitilesView getView(HttpServletRequest req, Repository repo) throws IOException {
     GitilesView view = ViewFilter.getView(req);
     if (!Revision.isNull(view.getRevision())) {
@@ -209,7 +377,7 @@ public class LogServlet extends BaseServlet {
       case 0:
         return Optional.empty();
       case 1:
-        String id = values.get(0);
+        String id = LogCursor.getStartId(values.get(0));
         if (!AbbreviatedObjectId.isId(id)) {
           throw new InvalidStartValueException();
         }
@@ -223,7 +391,19 @@ public class LogServlet extends BaseServlet {
     }
   }
 
-  private static RevWalk newWalk(Repository repo, GitilesView view, GitilesAccess access)
+  private RevWalk newWalk(Repository repo, GitilesView view, GitilesAccess access)
+      throws MissingObjectException, IOException {
+    return newWalk(repo, view, access, null);
+  }
+
+  /**
+   * Create a walk for a view.
+   *
+   * @param cursor if not null and the walk can be resumed, the walk starts at the frontier of
+   *     this cursor rather than at the view's revision.
+   */
+  private RevWalk newWalk(
+      Repository repo, GitilesView view, GitilesAccess access, @Nullable LogCursor cursor)
       throws MissingObjectException, IOException {
     RevWalk walk = new RevWalk(repo);
     if (isTrue(view, FIRST_PARENT_PARAM)) {
@@ -235,16 +415,23 @@ public class LogServlet extends BaseServlet {
     if (isTrue(view, REVERSE_PARAM)) {
       walk.sort(RevSort.REVERSE, true);
     }
+    setRevFilter(walk, view);
+    setTreeFilter(walk, view, access);
     try {
-      walk.markStart(walk.parseCommit(view.getRevision().getId()));
+      if (cursor != null && Paginator.canResume(walk)) {
+        for (ObjectId id : cursor.getFrontier()) {
+          walk.markStart(walk.parseCommit(id));
+        }
+      } else {
+        walk.markStart(walk.parseCommit(view.getRevision().getId()));
+      }
       if (!Revision.isNull(view.getOldRevision())) {
         walk.markUninteresting(walk.parseCommit(view.getOldRevision().getId()));
       }
     } catch (IncorrectObjectTypeException iote) {
+      walk.close();
       return null;
     }
-    setTreeFilter(walk, view, access);
-    setRevFilter(walk, view);
     return walk;
   }
 
@@ -271,7 +458,7 @@ public class LogServlet extends BaseServlet {
     }
   }
 
-  private static void setTreeFilter(RevWalk walk, GitilesView view, GitilesAccess access)
+  private void setTreeFilter(RevWalk walk, GitilesView view, GitilesAccess access)
       throws IOException {
     if (Strings.isNullOrEmpty(view.getPathPart())) {
       return;
@@ -284,11 +471,14 @@ public class LogServlet extends BaseServlet {
         !followParams.isEmpty()
             ? isTrue(followParams.get(0))
             : access.getConfig().getBoolean("log", null, "follow", true);
-    if (follow) {
-      walk.setTreeFilter(FollowFilter.create(path, access.getConfig().get(DiffConfig.KEY)));
+    TreeFilter filter =
+        follow
+            ? FollowFilter.create(path, access.getConfig().get(DiffConfig.KEY))
+            : AndTreeFilter.create(PathFilterGroup.createFromStrings(path), TreeFilter.ANY_DIFF);
+    if (changedPathCache != null) {
+      ChangedPathFilter.install(walk, changedPathCache, path, filter);
     } else {
-      walk.setTreeFilter(
-          AndTreeFilter.create(PathFilterGroup.createFromStrings(path), TreeFilter.ANY_DIFF));
+      walk.setTreeFilter(filter);
     }
   }
 
@@ -305,24 +495,49 @@ public class LogServlet extends BaseServlet {
     return Boolean.TRUE.equals(StringUtils.toBooleanOrNull(v));
   }
 
-  private static Paginator newPaginator(Repository repo, GitilesView view, GitilesAccess access)
+  private Paginator newPaginator(Repository repo, GitilesView view, GitilesAccess access)
       throws IOException {
     if (view == null) {
       return null;
     }
 
-    try (RevWalk walk = newWalk(repo, view, access)) {
+    Revision oldRev = view.getOldRevision();
+    HashFunction cursorMac =
+        LogCursor.newMac(
+            access.getConfig().getString("log", null, "cursorKey"),
+            view.getRevision().getId(),
+            !Revision.isNull(oldRev) ? oldRev.getId() : null);
+    List<String> startParams = view.getParameters().get(START_PARAM);
+    LogCursor cursor =
+        startParams.size() == 1 ? LogCursor.decode(startParams.get(0), cursorMac) : null;
+
+    try (RevWalk walk = newWalk(repo, view, access, cursor)) {
       if (walk == null) {
         return null;
       }
-
-      try {
-        Optional<ObjectId> start = getStart(view.getParameters(), walk.getObjectReader());
-        return new Paginator(walk, getLimit(view), start.orElse(null));
-      } catch (InvalidStartValueException e) {
-        return null;
+      if (cursor == null || !Paginator.canResume(walk)) {
+        return newPaginator(walk, view, cursorMac);
+      }
+      Paginator paginator = Paginator.resume(walk, getLimit(view), cursor, cursorMac);
+      if (paginator != null) {
+        return paginator;
       }
     }
+    // Clock skew may have led the resumed walk back to earlier pages; walk from the tip instead.
+    try (RevWalk walk = newWalk(repo, view, access)) {
+      return walk != null ? newPaginator(walk, view, cursorMac) : null;
+    }
+  }
+
+  @Nullable
+  private static Paginator newPaginator(RevWalk walk, GitilesView view, HashFunction cursorMac)
+      throws IOException {
+    try {
+      Optional<ObjectId> start = getStart(view.getParameters(), walk.getObjectReader());
+      return new Paginator(walk, getLimit(view), start.orElse(null), cursorMac);
+    } catch (InvalidStartValueException e) {
+      return null;
+    }
   }
 
   private static int getLimit(GitilesView view) {
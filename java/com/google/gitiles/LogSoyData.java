@@ -22,6 +22,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.gitiles.CommitData.Field;
+import com.google.gitiles.CommitData.MergeDiff;
 import com.google.template.soy.data.LoggingAdvisingAppendable;
 import com.google.template.soy.jbcsrc.api.SoySauce;
 import java.io.IOException;
@@ -32,6 +33,7 @@ import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.http.server.ServletUtils;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -63,6 +65,8 @@ public class LogSoyData {
   private final GitilesView view;
   private final Set<Field> fields;
   private final String variant;
+  private final Config config;
+  private RefsByIdCache refsByIdCache;
   private CommitSoyData csd;
 
   public LogSoyData(HttpServletRequest req, GitilesAccess access, String pretty)
@@ -70,11 +74,16 @@ public class LogSoyData {
     this.req = checkNotNull(req);
     this.view = checkNotNull(ViewFilter.getView(req));
     checkNotNull(pretty);
-    Config config = access.getConfig();
+    config = access.getConfig();
     fields = config.getBoolean("logFormat", pretty, "verbose", false) ? VERBOSE_FIELDS : FIELDS;
     variant = firstNonNull(config.getString("logFormat", pretty, "variant"), pretty);
   }
 
+  LogSoyData setRefsByIdCache(@Nullable RefsByIdCache refsByIdCache) {
+    this.refsByIdCache = refsByIdCache;
+    return this;
+  }
+
   private void renderHtml(SoySauce.Renderer renderer, LoggingAdvisingAppendable out)
       throws IOException {
     if (!renderer.renderHtml(out).result().isDone()) {
@@ -99,9 +108,19 @@ public class LogSoyData {
 
     SoySauce.Renderer entryRenderer = renderer.newRenderer("gitiles.logEntryWrapper");
     boolean renderedEntries = false;
-    for (RevCommit c : paginator) {
-      renderHtml(entryRenderer.setData(toEntrySoyData(paginator, c, df)), out);
-      renderedEntries = true;
+    try (DiffTreePrefetcher prefetcher =
+        fields.contains(Field.DIFF_TREE)
+            ? DiffTreePrefetcher.create(
+                ServletUtils.getRepository(req), paginator, MergeDiff.OFF, config)
+            : null) {
+      if (csd == null) {
+        csd = new CommitSoyData().setRefsByIdCache(refsByIdCache);
+      }
+      csd.setDiffTreePrefetcher(prefetcher);
+      for (RevCommit c : prefetcher != null ? prefetcher : paginator) {
+        renderHtml(entryRenderer.setData(toEntrySoyData(paginator, c, df)), out);
+        renderedEntries = true;
+      }
     }
     if (!renderedEntries) {
       renderHtml(renderer.newRenderer("gitiles.emptyLog"), out);
@@ -130,7 +149,7 @@ public class LogSoyData {
   private Map<String, Object> toEntrySoyData(Paginator paginator, RevCommit c, DateFormatter df)
       throws IOException {
     if (csd == null) {
-      csd = new CommitSoyData();
+      csd = new CommitSoyData().setRefsByIdCache(refsByIdCache);
     }
 
     Map<String, Object> entry = csd.toSoyData(req, paginator.getWalk(), c, fields, df);
@@ -162,15 +181,13 @@ public class LogSoyData {
       Paginator paginator, @Nullable String revision, FooterBehavior behavior) {
     switch (behavior) {
       case NEXT:
-        ObjectId next = paginator.getNextStart();
+        String next = paginator.getNextStartToken();
         if (next == null) {
           return ImmutableMap.of();
         }
         return ImmutableMap.of(
             "nextUrl",
-            copyAndCanonicalizeView(revision)
-                .replaceParam(LogServlet.START_PARAM, next.name())
-                .toUrl(),
+            copyAndCanonicalizeView(revision).replaceParam(LogServlet.START_PARAM, next).toUrl(),
             "nextText",
             "Next");
 
@@ -18,12 +18,17 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import com.google.common.hash.HashFunction;
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nullable;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
@@ -33,7 +38,11 @@ import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.FollowFilter;
 import org.eclipse.jgit.revwalk.RenameCallback;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.AndRevFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 /**
@@ -62,14 +71,152 @@ class Paginator implements Iterable<RevCommit> {
     }
   }
 
+  /**
+   * Filter observing every commit the walk visits, to maintain the state needed for a {@link
+   * LogCursor}.
+   *
+   * <p>Must be the first filter applied, so that it sees commits that later filters reject.
+   */
+  private static class CursorTracker extends RevFilter {
+    private final RevFlag walkedFlag;
+    private final boolean firstParent;
+    private final List<RevCommit> walked = new ArrayList<>();
+    private final Set<RevCommit> frontier = new LinkedHashSet<>();
+    private int resumedAt = Integer.MAX_VALUE;
+    private boolean skewed;
+
+    CursorTracker(RevWalk walk) {
+      walkedFlag = walk.newFlag("WALKED");
+      firstParent = walk.isFirstParent();
+    }
+
+    /** Mark a commit as walked by an earlier page. */
+    void walked(RevCommit c) {
+      c.add(walkedFlag);
+      walked.add(c);
+    }
+
+    @Override
+    public boolean include(RevWalk walker, RevCommit c) {
+      if (c.has(walkedFlag)) {
+        return false;
+      }
+      if (c.getCommitTime() > resumedAt) {
+        skewed = true;
+      }
+      walked(c);
+      frontier.remove(c);
+      for (int i = 0; i < parentCount(c); i++) {
+        RevCommit p = c.getParent(i);
+        if (!p.has(walkedFlag) && !p.has(RevFlag.UNINTERESTING)) {
+          frontier.add(p);
+        }
+      }
+      return true;
+    }
+
+    private int parentCount(RevCommit c) {
+      return firstParent ? Math.min(c.getParentCount(), 1) : c.getParentCount();
+    }
+
+    /**
+     * Restore the state of a walk from a cursor.
+     *
+     * <p>The horizon of the cursor holds every walked commit no more recent than the newest
+     * frontier commit, so a commit walked by an earlier page can only be reached again through
+     * clock skew, by a commit more recent than any in the frontier. Such commits are remembered in
+     * {@link #isSkewed()}.
+     */
+    void resume(RevWalk walk, LogCursor cursor) throws IOException {
+      walked(walk.parseCommit(cursor.getStart()));
+      for (ObjectId id : cursor.getHorizon()) {
+        walked(walk.parseCommit(id));
+      }
+      resumedAt = Integer.MIN_VALUE;
+      for (ObjectId id : cursor.getFrontier()) {
+        RevCommit c = walk.parseCommit(id);
+        frontier.add(c);
+        resumedAt = Math.max(resumedAt, c.getCommitTime());
+      }
+    }
+
+    /**
+     * @return whether a resumed walk visited a commit more recent than the frontier it resumed
+     *     from, which may have been walked by an earlier page.
+     */
+    boolean isSkewed() {
+      return skewed;
+    }
+
+    /**
+     * Create a cursor for the current state of the walk.
+     *
+     * <p>When commit times never decrease from parent to child, a walked commit reachable from the
+     * frontier is no more recent than the newest frontier commit; since the walk visits commits in
+     * order of decreasing time, only commits tied with the end of the page qualify, and they form
+     * the horizon. Clock skew between walked commits is detected here, and no cursor is created;
+     * skew among commits not walked yet is only detected when the cursor is resumed.
+     */
+    @Nullable
+    LogCursor toCursor(RevCommit next, @Nullable ObjectId previous) {
+      if (frontier.size() > LogCursor.MAX_COMMITS) {
+        return null;
+      }
+      int newest = Integer.MIN_VALUE;
+      for (RevCommit c : frontier) {
+        newest = Math.max(newest, c.getCommitTime());
+      }
+      List<RevCommit> horizon = new ArrayList<>();
+      for (RevCommit c : walked) {
+        for (int i = 0; i < parentCount(c); i++) {
+          RevCommit p = c.getParent(i);
+          if (p.getCommitTime() > c.getCommitTime() && !p.has(RevFlag.UNINTERESTING)) {
+            return null;
+          }
+        }
+        if (c.getCommitTime() <= newest && !c.equals(next)) {
+          horizon.add(c);
+          if (frontier.size() + horizon.size() > LogCursor.MAX_COMMITS) {
+            return null;
+          }
+        }
+      }
+      return new LogCursor(next, previous, frontier, horizon);
+    }
+
+    @Override
+    public boolean requiresCommitBody() {
+      return false;
+    }
+
+    @Override
+    public RevFilter clone() {
+      return this;
+    }
+  }
+
+  /**
+   * @return whether pages of this walk can be resumed from a {@link LogCursor}: walks in the
+   *     default order without a tree filter.
+   */
+  static boolean canResume(RevWalk walk) {
+    return ChangedPathFilter.getTreeFilter(walk) == TreeFilter.ALL
+        && !walk.hasRevSort(RevSort.TOPO)
+        && !walk.hasRevSort(RevSort.REVERSE);
+  }
+
   private final RevWalk walk;
   private final int limit;
   private final ObjectId prevStart;
   private final RenameWatcher renameWatcher;
+  @Nullable private final HashFunction cursorMac;
+  @Nullable private final CursorTracker tracker;
 
   private RevCommit first;
+  @Nullable private Deque<RevCommit> buffered;
   private boolean done;
   private int n;
+  private ObjectId pageStart;
   private ObjectId nextStart;
   private Map<ObjectId, DiffEntry> renamed;
 
@@ -82,11 +229,28 @@ class Paginator implements Iterable<RevCommit> {
    */
   Paginator(RevWalk walk, int limit, @Nullable ObjectId start)
       throws MissingObjectException, IncorrectObjectTypeException, IOException {
+    this(walk, limit, start, null);
+  }
+
+  /**
+   * Construct a paginator that hands out cursors, and walk eagerly to the first returned commit.
+   *
+   * @param walk revision walk; must be fully initialized but not started before calling.
+   * @param limit page size.
+   * @param start commit at which to start the walk, or null to start at the beginning.
+   * @param cursorMac function to sign cursors with; if null, or if the walk cannot be resumed,
+   *     {@link #getNextStartToken()} returns plain commit IDs.
+   */
+  Paginator(
+      RevWalk walk, int limit, @Nullable ObjectId start, @Nullable HashFunction cursorMac)
+      throws MissingObjectException, IncorrectObjectTypeException, IOException {
     this.walk = checkNotNull(walk, "walk");
     checkArgument(limit > 0, "limit must be positive: %s", limit);
     this.limit = limit;
+    this.cursorMac = cursorMac;
+    tracker = newTracker(walk, cursorMac);
 
-    TreeFilter filter = walk.getTreeFilter();
+    TreeFilter filter = ChangedPathFilter.getTreeFilter(walk);
     if (filter instanceof FollowFilter) {
       renameWatcher = new RenameWatcher();
       ((FollowFilter) filter).setRenameCallback(renameWatcher);
@@ -113,6 +277,63 @@ class Paginator implements Iterable<RevCommit> {
     prevStart = prevBuffer.pollFirst();
   }
 
+  /**
+   * Construct a paginator resuming a walk at a cursor, without walking the commits before it.
+   *
+   * <p>The page is walked eagerly, to check that clock skew does not lead the walk back to commits
+   * shown by earlier pages.
+   *
+   * @param walk revision walk; must be fully initialized but not started, and have the {@link
+   *     LogCursor#getFrontier() frontier} of the cursor as its start points. Must satisfy {@link
+   *     #canResume(RevWalk)}.
+   * @param limit page size.
+   * @param cursor position to resume at.
+   * @param cursorMac function to sign cursors with.
+   * @return the paginator, or null if the walk could not be resumed and must be started again
+   *     from its tip.
+   */
+  @Nullable
+  static Paginator resume(RevWalk walk, int limit, LogCursor cursor, HashFunction cursorMac)
+      throws MissingObjectException, IncorrectObjectTypeException, IOException {
+    Paginator p = new Paginator(walk, limit, cursor, cursorMac);
+    return !p.tracker.isSkewed() ? p : null;
+  }
+
+  private Paginator(RevWalk walk, int limit, LogCursor cursor, HashFunction cursorMac)
+      throws MissingObjectException, IncorrectObjectTypeException, IOException {
+    this.walk = checkNotNull(walk, "walk");
+    checkArgument(limit > 0, "limit must be positive: %s", limit);
+    checkArgument(canResume(walk), "walk cannot be resumed");
+    this.limit = limit;
+    this.cursorMac = checkNotNull(cursorMac, "cursorMac");
+    tracker = newTracker(walk, cursorMac);
+    renameWatcher = null;
+
+    first = walk.parseCommit(cursor.getStart());
+    tracker.resume(walk, cursor);
+    prevStart = cursor.getPrevious();
+
+    // The rest of the page, and the start of the next one.
+    buffered = new ArrayDeque<>(limit);
+    for (int i = 0; i < limit; i++) {
+      RevCommit c = walk.next();
+      if (c == null) {
+        break;
+      }
+      buffered.add(c);
+    }
+  }
+
+  @Nullable
+  private static CursorTracker newTracker(RevWalk walk, @Nullable HashFunction cursorMac) {
+    if (cursorMac == null || !canResume(walk)) {
+      return null;
+    }
+    CursorTracker t = new CursorTracker(walk);
+    walk.setRevFilter(AndRevFilter.create(t, walk.getRevFilter()));
+    return t;
+  }
+
   /**
    * Get the next element in this page of the walk.
    *
@@ -132,6 +353,9 @@ class Paginator implements Iterable<RevCommit> {
     } else {
       commit = nextWithRename();
     }
+    if (n == 0) {
+      pageStart = commit;
+    }
     if (++n == limit) {
       nextStart = nextWithRename();
       done = true;
@@ -142,6 +366,9 @@ class Paginator implements Iterable<RevCommit> {
   }
 
   private RevCommit nextWithRename() throws IOException {
+    if (buffered != null) {
+      return buffered.poll();
+    }
     RevCommit next = walk.next();
     if (renameWatcher != null) {
       // The commit that triggered the rename isn't available to RenameWatcher,
@@ -176,6 +403,21 @@ class Paginator implements Iterable<RevCommit> {
     return nextStart;
   }
 
+  /**
+   * @return value of the start parameter for the page of results after this one: an encoded
+   *     {@link LogCursor} if possible, otherwise the ID at its start. Null if this is the last
+   *     page.
+   */
+  @Nullable
+  public String getNextStartToken() {
+    ObjectId next = getNextStart();
+    if (next == null) {
+      return null;
+    }
+    LogCursor cursor = tracker != null ? tracker.toCursor((RevCommit) next, pageStart) : null;
+    return cursor != null ? cursor.encode(cursorMac) : next.name();
+  }
+
   /** @return entry corresponding to a rename or copy at the given commit. */
   public DiffEntry getRename(ObjectId commitId) {
     return renamed != null ? renamed.get(commitId) : null;
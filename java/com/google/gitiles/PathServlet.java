@@ -16,6 +16,10 @@ package com.google.gitiles;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.gitiles.TreeSoyData.resolveTargetUrl;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_PARTIAL_CONTENT;
+import static javax.servlet.http.HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 import static org.eclipse.jgit.lib.Constants.OBJ_COMMIT;
 import static org.eclipse.jgit.lib.Constants.OBJ_TREE;
@@ -26,14 +30,18 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
 import com.google.common.primitives.Bytes;
 import com.google.gitiles.GitilesRequestFailureException.FailureReason;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jgit.errors.ConfigInvalidException;
@@ -114,10 +122,26 @@ public class PathServlet extends BaseServlet {
   }
 
   private final GitilesUrls urls;
+  @Nullable private final HighlightCache highlightCache;
 
   public PathServlet(GitilesAccess.Factory accessFactory, Renderer renderer, GitilesUrls urls) {
+    this(accessFactory, renderer, urls, null);
+  }
+
+  public PathServlet(
+      GitilesAccess.Factory accessFactory,
+      Renderer renderer,
+      GitilesUrls urls,
+      @Nullable HighlightCache highlightCache) {
     super(renderer, accessFactory);
     this.urls = checkNotNull(urls, "urls");
+    this.highlightCache = highlightCache;
+  }
+
+  @Override
+  protected String getEtag(HttpServletRequest req, FormatType format) {
+    // Raw blobs are tagged with the blob id, which is valid across revisions.
+    return format != FormatType.RAW ? getViewEtag(req, format) : null;
   }
 
   @Override
@@ -185,6 +209,30 @@ public class PathServlet extends BaseServlet {
     }
   }
 
+  @Override
+  protected void doGetRaw(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    GitilesView view = ViewFilter.getView(req);
+    Repository repo = ServletUtils.getRepository(req);
+
+    try (RevWalk rw = new RevWalk(repo);
+        WalkResult wr = WalkResult.forPath(rw, view, false)) {
+      if (wr == null) {
+        throw new GitilesRequestFailureException(FailureReason.OBJECT_NOT_FOUND);
+      }
+      switch (wr.type) {
+        case SYMLINK:
+        case REGULAR_FILE:
+        case EXECUTABLE_FILE:
+          writeBlobRaw(req, res, wr);
+          break;
+        case TREE:
+        case GITLINK:
+        default:
+          throw new GitilesRequestFailureException(FailureReason.UNSUPPORTED_OBJECT_TYPE);
+      }
+    }
+  }
+
   public static void setModeHeader(HttpServletResponse res, FileType type) {
     res.setHeader(MODE_HEADER, String.format("%06o", type.mode.getBits()));
   }
@@ -203,6 +251,79 @@ public class PathServlet extends BaseServlet {
     }
   }
 
+  private void writeBlobRaw(HttpServletRequest req, HttpServletResponse res, WalkResult wr)
+      throws IOException {
+    ObjectLoader loader = wr.getObjectReader().open(wr.id, OBJ_BLOB);
+    long size = loader.getSize();
+    String etag = '"' + wr.id.name() + '"';
+
+    // Never let a browser interpret the bytes as anything other than a download, since they are
+    // arbitrary user content served from our origin.
+    setApiHeaders(req, res, FormatType.RAW);
+    res.setHeader(
+        HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + rawFileName(wr) + '"');
+    res.setHeader(HttpHeaders.X_CONTENT_TYPE_OPTIONS, "nosniff");
+    res.setHeader(HttpHeaders.ETAG, etag);
+    res.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    setTypeHeader(res, wr.type.mode.getObjectType());
+    setModeHeader(res, wr.type);
+    if (etagMatches(req, etag)) {
+      res.setStatus(SC_NOT_MODIFIED);
+      return;
+    }
+
+    ByteRange range = null;
+    String ifRange = req.getHeader(HttpHeaders.IF_RANGE);
+    if (ifRange == null || ifRange.equals(etag)) {
+      range = ByteRange.parse(req.getHeader(HttpHeaders.RANGE), size);
+    }
+    if (range != null && !range.isSatisfiable()) {
+      res.setHeader(HttpHeaders.CONTENT_RANGE, range.getContentRange());
+      res.setStatus(SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+    if (range == null || range.isFull()) {
+      res.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(size));
+      res.setStatus(SC_OK);
+      try (OutputStream out = res.getOutputStream()) {
+        loader.copyTo(out);
+      }
+      return;
+    }
+
+    res.setHeader(HttpHeaders.CONTENT_RANGE, range.getContentRange());
+    res.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(range.getLength()));
+    res.setStatus(SC_PARTIAL_CONTENT);
+    try (OutputStream out = res.getOutputStream()) {
+      if (!loader.isLarge()) {
+        out.write(loader.getCachedBytes(), (int) range.getFirst(), (int) range.getLength());
+      } else {
+        try (InputStream in = loader.openStream()) {
+          ByteStreams.skipFully(in, range.getFirst());
+          ByteStreams.copy(ByteStreams.limit(in, range.getLength()), out);
+        }
+      }
+    }
+  }
+
+  private static String rawFileName(WalkResult wr) {
+    String name = wr.path.substring(wr.path.lastIndexOf('/') + 1);
+    StringBuilder sb = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean safe =
+          (c >= 'a' && c <= 'z')
+              || (c >= 'A' && c <= 'Z')
+              || (c >= '0' && c <= '9')
+              || c == '.'
+              || c == '-'
+              || c == '_'
+              || c == '+';
+      sb.append(safe ? c : '_');
+    }
+    return sb.length() > 0 ? sb.toString() : wr.id.name();
+  }
+
   private void writeTreeText(HttpServletRequest req, HttpServletResponse res, WalkResult wr)
       throws IOException {
     setTypeHeader(res, wr.type.mode.getObjectType());
@@ -256,11 +377,11 @@ public class PathServlet extends BaseServlet {
               FileJsonData.File.class);
           break;
         case TREE:
-          renderJson(
+          renderJsonStreaming(
               req,
               res,
-              TreeJsonData.toJsonData(wr.id, wr.tw, includeSizes, recursive),
-              TreeJsonData.Tree.class);
+              (gson, out) ->
+                  TreeJsonData.writeJson(wr.id, wr.tw, includeSizes, recursive, gson, out));
           break;
         case EXECUTABLE_FILE:
         case GITLINK:
@@ -510,17 +631,28 @@ public class PathServlet extends BaseServlet {
   private void showFile(HttpServletRequest req, HttpServletResponse res, WalkResult wr)
       throws IOException {
     GitilesView view = ViewFilter.getView(req);
-    Map<String, ?> data = new BlobSoyData(wr.getObjectReader(), view).toSoyData(wr.path, wr.id);
-    // TODO(sop): Allow caching files by SHA-1 when no S cookie is sent.
-    renderHtml(
-        req,
-        res,
-        "gitiles.pathDetail",
+    BlobSoyData.StreamingSoyData blob =
+        new BlobSoyData(wr.getObjectReader(), view, highlightCache)
+            .toStreamingSoyData(wr.path, wr.id);
+    Map<String, ?> soyData =
         ImmutableMap.of(
             "title", ViewFilter.getView(req).getPathPart(),
             "breadcrumbs", view.getBreadcrumbs(wr.hasSingleTree),
             "type", wr.type.toString(),
-            "data", data));
+            "data", blob.getSoyData());
+    // TODO(sop): Allow caching files by SHA-1 when no S cookie is sent.
+    if (!blob.hasLines()) {
+      renderHtml(req, res, "gitiles.pathDetail", soyData);
+      return;
+    }
+    // Write highlighted lines straight to the (possibly compressed) response rather than building
+    // the whole page in memory first.
+    try (OutputStream out =
+        startRenderCompressedStreamingHtml(req, res, "gitiles.pathDetail", soyData)) {
+      Writer w = newWriter(out, res);
+      blob.renderLines(renderer, w);
+      w.flush();
+    }
   }
 
   private void showSymlink(HttpServletRequest req, HttpServletResponse res, WalkResult wr)
@@ -0,0 +1,46 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import syntaxhighlight.ParseResult;
+
+/** Highlighter using prettify, which guesses at the syntax of any language. */
+public class PrettifyHighlighter implements SyntaxHighlighter {
+  private static final Logger log = LoggerFactory.getLogger(PrettifyHighlighter.class);
+
+  public static final PrettifyHighlighter INSTANCE = new PrettifyHighlighter();
+
+  private PrettifyHighlighter() {}
+
+  @Override
+  @Nullable
+  public Highlights highlight(@Nullable String lang, String text) {
+    Highlights.Builder b = Highlights.builder();
+    try {
+      for (ParseResult r : ThreadSafePrettifyParser.INSTANCE.parse(lang, text)) {
+        b.add(r.getOffset(), r.getOffset() + r.getLength(), r.getStyleKeysString());
+      }
+    } catch (StackOverflowError e) {
+      // TODO(dborowitz): Aaagh. Make prettify use RE2. Or replace it something
+      // else. Or something.
+      log.warn("StackOverflowError prettifying {} characters of {}", text.length(), lang);
+      return null;
+    }
+    return b.build();
+  }
+}
@@ -23,13 +23,10 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.primitives.Ints;
-import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gitiles.GitilesRequestFailureException.FailureReason;
-import com.google.gson.reflect.TypeToken;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Collection;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -86,12 +83,18 @@ public class RefServlet extends BaseServlet {
   protected void doGetJson(HttpServletRequest req, HttpServletResponse res) throws IOException {
     GitilesView view = ViewFilter.getView(req);
     RefsResult refs = getRefs(ServletUtils.getRepository(req).getRefDatabase(), view.getPathPart());
-    Map<String, RefJsonData> jsonRefs = new LinkedHashMap<>();
     int prefixLen = refs.prefix.length();
-    for (Ref ref : refs.refs) {
-      jsonRefs.put(ref.getName().substring(prefixLen), new RefJsonData(ref));
-    }
-    renderJson(req, res, jsonRefs, new TypeToken<Map<String, RefJsonData>>() {}.getType());
+    renderJsonStreaming(
+        req,
+        res,
+        (gson, out) -> {
+          out.beginObject();
+          for (Ref ref : refs.refs) {
+            out.name(ref.getName().substring(prefixLen));
+            gson.toJson(new RefJsonData(ref), RefJsonData.class, out);
+          }
+          out.endObject();
+        });
   }
 
   static List<Map<String, Object>> getBranchesSoyData(HttpServletRequest req, int limit)
@@ -129,28 +132,10 @@ public class RefServlet extends BaseServlet {
 
   static List<Map<String, Object>> getTagsSoyData(
       HttpServletRequest req, TimeCache timeCache, RevWalk walk, int limit) throws IOException {
-    return getRefsSoyData(
-        ServletUtils.getRepository(req).getRefDatabase(),
-        ViewFilter.getView(req),
-        Constants.R_TAGS,
-        tagComparator(timeCache, walk),
-        null,
-        limit);
-  }
-
-  private static Long getTime(RevWalk walk, TimeCache timeCache, Ref ref) {
-    try {
-      return timeCache.getTime(walk, ref.getObjectId());
-    } catch (IOException e) {
-      throw new UncheckedExecutionException(e);
-    }
-  }
-
-  private static Ordering<Ref> tagComparator(TimeCache timeCache, RevWalk walk) {
-    return Ordering.natural()
-        .onResultOf((Ref r) -> getTime(walk, timeCache, r))
-        .reverse()
-        .compound(RefComparator.INSTANCE);
+    List<Ref> tags =
+        timeCache.getTagsByTime(
+            ServletUtils.getRepository(req), walk, limit > 0 ? Ints.saturatedCast(limit + 1L) : 0);
+    return toSoyData(ViewFilter.getView(req), Constants.R_TAGS, tags, null);
   }
 
   private static List<Map<String, Object>> getRefsSoyData(
@@ -164,6 +149,11 @@ public class RefServlet extends BaseServlet {
     checkArgument(prefix.endsWith("/"), "ref hierarchy prefix should end with /: %s", prefix);
     Collection<Ref> refs = refdb.getRefsByPrefix(prefix);
     refs = ordering.leastOf(refs, limit > 0 ? Ints.saturatedCast(limit + 1L) : refs.size());
+    return toSoyData(view, prefix, refs, headLeaf);
+  }
+
+  private static List<Map<String, Object>> toSoyData(
+      GitilesView view, String prefix, Collection<Ref> refs, @Nullable Ref headLeaf) {
     List<Map<String, Object>> result = Lists.newArrayListWithCapacity(refs.size());
 
     for (Ref ref : refs) {
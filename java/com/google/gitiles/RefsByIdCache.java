@@ -0,0 +1,98 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+
+/**
+ * Cache of {@link RefsByIdIndex} instances, keyed on the refs they were built from.
+ *
+ * <p>The key is a digest of the names and IDs of the branches and tags of a repository, so all
+ * requests against the same snapshot of those refs share one index, and any change to them produces
+ * a fresh one. Entries are weighed by the number of refs they hold.
+ */
+public class RefsByIdCache {
+  /** Default maximum weight of the cache, in refs. */
+  public static final long DEFAULT_MAXIMUM_WEIGHT = 1 << 20;
+
+  public static CacheBuilder<ObjectId, RefsByIdIndex> defaultBuilder() {
+    return weigher(CacheBuilder.newBuilder()).maximumWeight(DEFAULT_MAXIMUM_WEIGHT);
+  }
+
+  public static CacheBuilder<ObjectId, RefsByIdIndex> weigher(
+      CacheBuilder<? super ObjectId, ? super RefsByIdIndex> builder) {
+    return builder.weigher((k, v) -> 1 + v.size());
+  }
+
+  private final Cache<ObjectId, RefsByIdIndex> cache;
+
+  public RefsByIdCache() {
+    this(defaultBuilder());
+  }
+
+  public RefsByIdCache(CacheBuilder<? super ObjectId, ? super RefsByIdIndex> builder) {
+    this.cache = builder.build();
+  }
+
+  public Cache<ObjectId, RefsByIdIndex> getCache() {
+    return cache;
+  }
+
+  /**
+   * Get the index of the current branches and tags of a repository.
+   *
+   * @param refdb ref database of the repository.
+   * @return index of the refs under {@code refs/heads/} and {@code refs/tags/}.
+   * @throws IOException if the refs could not be read or peeled.
+   */
+  RefsByIdIndex get(RefDatabase refdb) throws IOException {
+    List<Ref> refs = RefsByIdIndex.getRefs(refdb);
+    try {
+      return cache.get(snapshotKey(refs), () -> new RefsByIdIndex(refdb, refs));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e);
+    }
+  }
+
+  private static ObjectId snapshotKey(List<Ref> refs) {
+    MessageDigest md = Constants.newMessageDigest();
+    byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+    for (Ref ref : refs) {
+      md.update(ref.getName().getBytes(UTF_8));
+      md.update((byte) 0);
+      ObjectId id = ref.getObjectId();
+      if (id != null) {
+        id.copyRawTo(buf, 0);
+        md.update(buf);
+      }
+    }
+    return ObjectId.fromRaw(md.digest());
+  }
+}
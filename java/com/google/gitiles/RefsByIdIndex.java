@@ -0,0 +1,94 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static java.util.Comparator.comparing;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+
+/**
+ * Immutable index from peeled object ID to the branches and tags pointing at it.
+ *
+ * <p>Peeling every tag for each page that decorates commits is expensive on repositories with many
+ * refs, so indexes are shared across requests and threads through a {@link RefsByIdCache}. Other
+ * refs, such as Gerrit's change refs, are never read.
+ */
+public class RefsByIdIndex {
+  /**
+   * Build an index of the current branches and tags of a repository, without caching it.
+   *
+   * @param refdb ref database of the repository.
+   * @return index of the refs under {@code refs/heads/} and {@code refs/tags/}.
+   * @throws IOException if the refs could not be read or peeled.
+   */
+  static RefsByIdIndex create(RefDatabase refdb) throws IOException {
+    return new RefsByIdIndex(refdb, getRefs(refdb));
+  }
+
+  static List<Ref> getRefs(RefDatabase refdb) throws IOException {
+    return refdb.getRefsByPrefix(Constants.R_HEADS, Constants.R_TAGS);
+  }
+
+  private final ImmutableListMultimap<ObjectId, Ref> refs;
+
+  RefsByIdIndex(RefDatabase refdb, List<Ref> refs) throws IOException {
+    List<Ref> sorted = new ArrayList<>(refs);
+    sorted.sort(comparing(Ref::getName));
+    ImmutableListMultimap.Builder<ObjectId, Ref> b = ImmutableListMultimap.builder();
+    for (Ref ref : sorted) {
+      if (!ref.isPeeled()) {
+        ref = refdb.peel(ref);
+      }
+      ObjectId id = ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+      if (id != null) {
+        b.put(id, ref);
+      }
+    }
+    this.refs = b.build();
+  }
+
+  /** @return number of refs in the index. */
+  int size() {
+    return refs.size();
+  }
+
+  /**
+   * @param id peeled object ID.
+   * @param prefix prefix of the ref names to return, such as {@code refs/heads/}.
+   * @return refs with the prefix pointing at the object, sorted by name.
+   */
+  ImmutableList<Ref> get(AnyObjectId id, String prefix) {
+    ImmutableList<Ref> all = refs.get(id.toObjectId());
+    if (all.isEmpty()) {
+      return all;
+    }
+    ImmutableList.Builder<Ref> b = ImmutableList.builder();
+    for (Ref ref : all) {
+      if (ref.getName().startsWith(prefix)) {
+        b.add(ref);
+      }
+    }
+    return b.build();
+  }
+}
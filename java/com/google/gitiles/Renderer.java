@@ -34,13 +34,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
-import java.util.zip.GZIPOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -133,6 +134,23 @@ public abstract class Renderer {
     return h;
   }
 
+  /**
+   * Get a hash of all templates and globals, which together determine the markup of every page.
+   *
+   * @return hash suitable for inclusion in the entity tag of a rendered page.
+   */
+  public HashCode getTemplatesHash() {
+    Hasher h = Hashing.murmur3_128().newHasher();
+    for (String soyFile : templates.keySet()) {
+      h.putBytes(getTemplateHash(soyFile).asBytes());
+    }
+    for (Map.Entry<String, String> e : globals.entrySet()) {
+      h.putString(e.getKey(), UTF_8).putByte((byte) 0);
+      h.putString(e.getValue(), UTF_8).putByte((byte) 0);
+    }
+    return h.hash();
+  }
+
   HashCode computeTemplateHash(String soyFile) {
     URL u = templates.get(soyFile);
     checkState(u != null, "Missing Soy template %s", soyFile);
@@ -156,24 +174,32 @@ public abstract class Renderer {
       throws IOException {
     res.setContentType("text/html");
     res.setCharacterEncoding("UTF-8");
-    byte[] data =
-        newRenderer(templateName).setData(soyData).renderHtml().get().toString().getBytes(UTF_8);
-    if (BaseServlet.acceptsGzipEncoding(req)) {
-      res.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
-      res.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
-      data = BaseServlet.gzip(data);
+    String html = newRenderer(templateName).setData(soyData).renderHtml().get().toString();
+    ContentEncoding enc = ContentEncoding.negotiate(req);
+    if (enc != ContentEncoding.IDENTITY) {
+      // Encode straight into the compressor rather than through intermediate byte arrays.
+      OutputStream out = enc.start(res, html.length());
+      try (Writer w = new OutputStreamWriter(out, UTF_8)) {
+        w.write(html);
+      }
+      return;
     }
+    byte[] data = html.getBytes(UTF_8);
+    res.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
     res.setContentLength(data.length);
     res.getOutputStream().write(data);
   }
 
   OutputStream renderHtmlStreaming(
       HttpServletResponse res, String templateName, Map<String, ?> soyData) throws IOException {
-    return renderHtmlStreaming(res, false, templateName, soyData);
+    return renderHtmlStreaming(res, ContentEncoding.IDENTITY, templateName, soyData);
   }
 
   OutputStream renderHtmlStreaming(
-      HttpServletResponse res, boolean gzip, String templateName, Map<String, ?> soyData)
+      HttpServletResponse res,
+      ContentEncoding enc,
+      String templateName,
+      Map<String, ?> soyData)
       throws IOException {
     String html = newRenderer(templateName).setData(soyData).renderHtml().get().toString();
     int id = html.indexOf(PLACEHOLDER);
@@ -182,7 +208,7 @@ public abstract class Renderer {
     int lt = html.lastIndexOf('<', id);
     int gt = html.indexOf('>', id + PLACEHOLDER.length());
 
-    OutputStream out = gzip ? new GZIPOutputStream(res.getOutputStream()) : res.getOutputStream();
+    OutputStream out = enc.start(res, -1);
     out.write(html.substring(0, lt).getBytes(UTF_8));
     out.flush();
 
@@ -31,6 +31,7 @@ import java.io.Writer;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
@@ -53,11 +54,21 @@ public class RepositoryIndexServlet extends BaseServlet {
   private static final int LOG_WITH_README_LIMIT = 5;
 
   private final TimeCache timeCache;
+  @Nullable private final RefsByIdCache refsByIdCache;
 
   public RepositoryIndexServlet(
       GitilesAccess.Factory accessFactory, Renderer renderer, TimeCache timeCache) {
+    this(accessFactory, renderer, timeCache, null);
+  }
+
+  public RepositoryIndexServlet(
+      GitilesAccess.Factory accessFactory,
+      Renderer renderer,
+      TimeCache timeCache,
+      @Nullable RefsByIdCache refsByIdCache) {
     super(renderer, accessFactory);
     this.timeCache = checkNotNull(timeCache, "timeCache");
+    this.refsByIdCache = refsByIdCache;
   }
 
   @Override
@@ -132,6 +143,7 @@ public class RepositoryIndexServlet extends BaseServlet {
             startRenderStreamingHtml(req, res, "gitiles.repositoryIndex", data)) {
           Writer w = newWriter(out, res);
           new LogSoyData(req, access, "oneline")
+              .setRefsByIdCache(refsByIdCache)
               .renderStreaming(
                   paginator, "HEAD", renderer, w, df, LogSoyData.FooterBehavior.LOG_HEAD);
           w.flush();
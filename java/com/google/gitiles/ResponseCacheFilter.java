@@ -0,0 +1,457 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Objects.hash;
+import static javax.servlet.http.HttpServletResponse.SC_MOVED_TEMPORARILY;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static org.eclipse.jgit.util.HttpSupport.ENCODING_GZIP;
+
+import com.google.common.base.Ascii;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.Nullable;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Filter caching complete responses for views that name an immutable commit.
+ *
+ * <p>Only successful GET responses for views whose revisions are named by full SHA-1 are cached.
+ * Entries are keyed on the canonical URL of the view, the requested format, whether the client
+ * accepts gzip and the user's ACL class, and hold the response body compressed. The cache is
+ * bounded by the size of the stored bodies. Cross-origin headers depend on the requesting origin,
+ * so they are not stored, and are computed again for each response replayed from the cache.
+ */
+public class ResponseCacheFilter extends AbstractHttpFilter {
+  /** Default maximum weight of the cache, in bytes. */
+  public static final long DEFAULT_MAXIMUM_WEIGHT = 64 << 20;
+
+  /** Default maximum size of a single response body to cache, in bytes. */
+  public static final int DEFAULT_MAXIMUM_ENTRY_SIZE = 1 << 20;
+
+  private static final ImmutableSet<GitilesView.Type> CACHEABLE_TYPES =
+      ImmutableSet.of(
+          GitilesView.Type.REVISION,
+          GitilesView.Type.PATH,
+          GitilesView.Type.SHOW,
+          GitilesView.Type.DIFF,
+          GitilesView.Type.LOG,
+          GitilesView.Type.BLAME,
+          GitilesView.Type.DOC);
+
+  public static CacheBuilder<Key, Entry> defaultBuilder() {
+    return weigher(CacheBuilder.newBuilder()).maximumWeight(DEFAULT_MAXIMUM_WEIGHT);
+  }
+
+  public static CacheBuilder<Key, Entry> weigher(
+      CacheBuilder<? super Key, ? super Entry> builder) {
+    return builder.weigher((k, v) -> k.getWeight() + v.getWeight());
+  }
+
+  public static class Key {
+    private final String url;
+    private final FormatType format;
+    private final boolean gzip;
+    private final Object aclClass;
+
+    public Key(String url, FormatType format, boolean gzip, Object aclClass) {
+      this.url = url;
+      this.format = format;
+      this.gzip = gzip;
+      this.aclClass = aclClass;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof Key) {
+        Key k = (Key) o;
+        return url.equals(k.url)
+            && format == k.format
+            && gzip == k.gzip
+            && aclClass.equals(k.aclClass);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash(url, format, gzip, aclClass);
+    }
+
+    @Override
+    public String toString() {
+      return format + " " + url + (gzip ? " (gzip)" : "");
+    }
+
+    private int getWeight() {
+      // Key object, URL and cache entry overhead.
+      return 128 + 2 * url.length();
+    }
+  }
+
+  /** Cached response. */
+  public static class Entry {
+    private final ImmutableListMultimap<String, String> headers;
+    private final byte[] body;
+    private final boolean inflate;
+
+    private Entry(ImmutableListMultimap<String, String> headers, byte[] body, boolean inflate) {
+      this.headers = headers;
+      this.body = body;
+      this.inflate = inflate;
+    }
+
+    private int getWeight() {
+      int n = 64 + body.length;
+      for (Map.Entry<String, String> e : headers.entries()) {
+        n += 48 + 2 * (e.getKey().length() + e.getValue().length());
+      }
+      return n;
+    }
+  }
+
+  private final GitilesAccess.Factory accessFactory;
+  private final Cache<Key, Entry> cache;
+  private final int maximumEntrySize;
+
+  public ResponseCacheFilter(GitilesAccess.Factory accessFactory) {
+    this(accessFactory, defaultBuilder(), DEFAULT_MAXIMUM_ENTRY_SIZE);
+  }
+
+  public ResponseCacheFilter(
+      GitilesAccess.Factory accessFactory,
+      CacheBuilder<? super Key, ? super Entry> builder,
+      int maximumEntrySize) {
+    checkArgument(maximumEntrySize > 0, "maximumEntrySize must be positive");
+    this.accessFactory = checkNotNull(accessFactory, "accessFactory");
+    this.cache = builder.build();
+    this.maximumEntrySize = maximumEntrySize;
+  }
+
+  public Cache<Key, Entry> getCache() {
+    return cache;
+  }
+
+  @Override
+  public void doFilter(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+      throws IOException, ServletException {
+    Key key = getKey(req);
+    if (key == null) {
+      chain.doFilter(req, res);
+      return;
+    }
+
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null) {
+      send(req, res, key, entry);
+      return;
+    }
+
+    CapturingResponse capture = new CapturingResponse(res, maximumEntrySize);
+    chain.doFilter(req, capture);
+    entry = capture.toEntry();
+    if (entry != null) {
+      cache.put(key, entry);
+    }
+  }
+
+  @Nullable
+  private Key getKey(HttpServletRequest req) {
+    if (!"GET".equals(req.getMethod())
+        || Strings.nullToEmpty(req.getHeader(HttpHeaders.PRAGMA)).equalsIgnoreCase("no-cache")
+        || Strings.nullToEmpty(req.getHeader(HttpHeaders.CACHE_CONTROL))
+            .equalsIgnoreCase("no-cache")) {
+      return null;
+    }
+    GitilesView view = ViewFilter.getView(req);
+    if (view == null || !CACHEABLE_TYPES.contains(view.getType()) || !isImmutable(view)) {
+      return null;
+    }
+    Optional<FormatType> format = FormatType.getFormatType(req);
+    if (!format.isPresent() || format.get() == FormatType.RAW) {
+      // Raw responses answer Range requests, which are not worth caching.
+      return null;
+    }
+    if (view.getType() == GitilesView.Type.LOG
+        && (format.get() != FormatType.JSON || view.getParameters().containsKey("ndjson"))) {
+      // The HTML log decorates commits with branches and tags, which may move, and the streaming
+      // log may stop at a time limit.
+      return null;
+    }
+    return new Key(
+        Strings.nullToEmpty(view.getHostName()) + view.toUrl(),
+        format.get(),
+        BaseServlet.acceptsGzipEncoding(req),
+        GitilesAccess.getAccess(req, accessFactory).getAclClassKey());
+  }
+
+  private static boolean isImmutable(GitilesView view) {
+    Revision rev = view.getRevision();
+    if (Revision.isNull(rev) || !rev.nameIsId()) {
+      return false;
+    }
+    Revision old = view.getOldRevision();
+    return Revision.isNull(old) || old.nameIsId() || old.getName().equals(rev.getName() + "^");
+  }
+
+  private void send(HttpServletRequest req, HttpServletResponse res, Key key, Entry entry)
+      throws IOException {
+    for (Map.Entry<String, String> e : entry.headers.entries()) {
+      if (e.getKey().equals(HttpHeaders.CONTENT_TYPE)) {
+        res.setContentType(e.getValue());
+      } else {
+        res.addHeader(e.getKey(), e.getValue());
+      }
+    }
+    if (key.format != FormatType.HTML) {
+      // JSON and text responses are API responses, whose cross-origin headers were not stored.
+      BaseServlet.setCorsHeaders(
+          req, res, GitilesAccess.getAccess(req, accessFactory).getConfig());
+    }
+    String etag = Iterables.getFirst(entry.headers.get(HttpHeaders.ETAG), null);
+    if (etag != null && BaseServlet.etagMatches(req, etag)) {
+      res.setStatus(SC_NOT_MODIFIED);
+      return;
+    }
+    res.setStatus(SC_OK);
+    try (OutputStream out = res.getOutputStream()) {
+      if (entry.inflate) {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(entry.body))) {
+          ByteStreams.copy(in, out);
+        }
+      } else {
+        out.write(entry.body);
+      }
+    }
+  }
+
+  private static final String CORS_HEADER_PREFIX = "access-control-";
+
+  /** Response passing everything through while recording the headers and body. */
+  private static class CapturingResponse extends HttpServletResponseWrapper {
+    private final ListMultimap<String, String> headers = LinkedListMultimap.create();
+    private final int maximumEntrySize;
+    private ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private int status = SC_OK;
+    private boolean cacheable = true;
+    private String contentType;
+    private ServletOutputStream out;
+    private PrintWriter writer;
+
+    CapturingResponse(HttpServletResponse res, int maximumEntrySize) {
+      super(res);
+      this.maximumEntrySize = maximumEntrySize;
+    }
+
+    @Nullable
+    Entry toEntry() throws IOException {
+      if (status != SC_OK || !cacheable || body == null) {
+        return null;
+      }
+      for (String cc : headers.get(HttpHeaders.CACHE_CONTROL)) {
+        if (cc.contains("no-store")) {
+          return null;
+        }
+      }
+      if (writer != null) {
+        writer.flush();
+      }
+      headers.removeAll(HttpHeaders.CONTENT_TYPE);
+      for (String name : ImmutableSet.copyOf(headers.keySet())) {
+        if (Ascii.toLowerCase(name).startsWith(CORS_HEADER_PREFIX)) {
+          headers.removeAll(name);
+        }
+      }
+      // Prefer the container's view, which includes the character encoding.
+      String type = firstNonNull(getContentType(), Strings.nullToEmpty(contentType));
+      if (!type.isEmpty()) {
+        headers.put(HttpHeaders.CONTENT_TYPE, type);
+      }
+      boolean gzipped =
+          headers.get(HttpHeaders.CONTENT_ENCODING).contains(ENCODING_GZIP);
+      byte[] bytes = body.toByteArray();
+      if (!gzipped) {
+        bytes = BaseServlet.gzip(bytes);
+      }
+      return new Entry(ImmutableListMultimap.copyOf(headers), bytes, !gzipped);
+    }
+
+    @Override
+    public void setStatus(int sc) {
+      status = sc;
+      super.setStatus(sc);
+    }
+
+    @Override
+    @Deprecated
+    public void setStatus(int sc, String msg) {
+      status = sc;
+      super.setStatus(sc, msg);
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+      status = sc;
+      super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+      status = sc;
+      super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+      status = SC_MOVED_TEMPORARILY;
+      super.sendRedirect(location);
+    }
+
+    @Override
+    public void setContentType(String type) {
+      contentType = type;
+      super.setContentType(type);
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+      cacheable = false;
+      super.addCookie(cookie);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+      headers.removeAll(name);
+      headers.put(name, value);
+      super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+      headers.put(name, value);
+      super.addHeader(name, value);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+      headers.removeAll(name);
+      headers.put(name, Integer.toString(value));
+      super.setIntHeader(name, value);
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+      headers.put(name, Integer.toString(value));
+      super.addIntHeader(name, value);
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+      // Dates describe this particular response and must not be replayed.
+      cacheable = false;
+      super.setDateHeader(name, date);
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+      cacheable = false;
+      super.addDateHeader(name, date);
+    }
+
+    @Override
+    public void setContentLength(int len) {
+      setIntHeader(HttpHeaders.CONTENT_LENGTH, len);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      if (out == null) {
+        ServletOutputStream delegate = super.getOutputStream();
+        out =
+            new ServletOutputStream() {
+              @Override
+              public void write(int b) throws IOException {
+                delegate.write(b);
+                if (capture(1)) {
+                  body.write(b);
+                }
+              }
+
+              @Override
+              public void write(byte[] b, int off, int len) throws IOException {
+                delegate.write(b, off, len);
+                if (capture(len)) {
+                  body.write(b, off, len);
+                }
+              }
+
+              @Override
+              public void flush() throws IOException {
+                delegate.flush();
+              }
+
+              @Override
+              public void close() throws IOException {
+                delegate.close();
+              }
+            };
+      }
+      return out;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if (writer == null) {
+        writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+      }
+      return writer;
+    }
+
+    private boolean capture(int len) {
+      if (body != null && body.size() + len > maximumEntrySize) {
+        body = null;
+      }
+      return body != null;
+    }
+  }
+}
@@ -33,6 +33,7 @@ import java.io.OutputStream;
 import java.io.Writer;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
@@ -60,11 +61,29 @@ public class RevisionServlet extends BaseServlet {
   private static final long serialVersionUID = 1L;
 
   private final Linkifier linkifier;
+  @Nullable private final HighlightCache highlightCache;
+  @Nullable private final RefsByIdCache refsByIdCache;
 
   public RevisionServlet(
       GitilesAccess.Factory accessFactory, Renderer renderer, Linkifier linkifier) {
+    this(accessFactory, renderer, linkifier, null, null);
+  }
+
+  public RevisionServlet(
+      GitilesAccess.Factory accessFactory,
+      Renderer renderer,
+      Linkifier linkifier,
+      @Nullable HighlightCache highlightCache,
+      @Nullable RefsByIdCache refsByIdCache) {
     super(renderer, accessFactory);
     this.linkifier = checkNotNull(linkifier, "linkifier");
+    this.highlightCache = highlightCache;
+    this.refsByIdCache = refsByIdCache;
+  }
+
+  @Override
+  protected String getEtag(HttpServletRequest req, FormatType format) {
+    return getViewEtag(req, format);
   }
 
   @Override
@@ -93,6 +112,7 @@ public class RevisionServlet extends BaseServlet {
                       "data",
                       new CommitSoyData()
                           .setLinkifier(linkifier)
+                          .setRefsByIdCache(refsByIdCache)
                           .setArchiveFormat(getArchiveFormat(access))
                           .toSoyData(req, walk, (RevCommit) obj, COMMIT_SOY_FIELDS, df)));
               break;
@@ -110,7 +130,8 @@ public class RevisionServlet extends BaseServlet {
                       "type",
                       Constants.TYPE_BLOB,
                       "data",
-                      new BlobSoyData(walk.getObjectReader(), view).toSoyData(obj)));
+                      new BlobSoyData(walk.getObjectReader(), view, highlightCache)
+                          .toSoyData(obj)));
               hasBlob = true;
               break;
             case OBJ_TAG:
@@ -173,7 +194,15 @@ public class RevisionServlet extends BaseServlet {
           renderJson(
               req,
               res,
-              new CommitJsonData().toJsonData(req, walk, (RevCommit) obj, COMMIT_JSON_FIELDS, df),
+              new CommitJsonData()
+                  .setRefsByIdCache(refsByIdCache)
+                  .setMergeDiff(CommitJsonData.getMergeDiff(view))
+                  .toJsonData(
+                      req,
+                      walk,
+                      (RevCommit) obj,
+                      CommitJsonData.getFields(view, COMMIT_JSON_FIELDS),
+                      df),
               Commit.class);
           break;
         default:
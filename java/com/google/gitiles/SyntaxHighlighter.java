@@ -0,0 +1,50 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import javax.annotation.Nullable;
+
+/**
+ * Syntax highlighter for source code.
+ *
+ * <p>Styles are the CSS classes used by prettify, e.g. {@code kwd} or {@code str}. Implementations
+ * must be thread-safe.
+ */
+public interface SyntaxHighlighter {
+  /** Fast tokenizer for common languages, falling back to prettify for everything else. */
+  SyntaxHighlighter DEFAULT = new LexicalHighlighter().orElse(PrettifyHighlighter.INSTANCE);
+
+  /**
+   * Highlight text.
+   *
+   * @param lang language or file extension of the text, or null if unknown.
+   * @param text text to highlight.
+   * @return highlighted ranges, or null if this highlighter does not handle the language or failed
+   *     on this text.
+   */
+  @Nullable
+  Highlights highlight(@Nullable String lang, String text);
+
+  /**
+   * @param fallback highlighter to use when this one returns null.
+   * @return a highlighter that tries this highlighter first, then {@code fallback}.
+   */
+  default SyntaxHighlighter orElse(SyntaxHighlighter fallback) {
+    return (lang, text) -> {
+      Highlights result = highlight(lang, text);
+      return result != null ? result : fallback.highlight(lang, text);
+    };
+  }
+}
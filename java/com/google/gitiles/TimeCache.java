@@ -14,14 +14,27 @@
 
 package com.google.gitiles;
 
+import static java.util.Comparator.comparingLong;
+
 import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefComparator;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevTag;
@@ -33,26 +46,68 @@ import org.eclipse.jgit.revwalk.RevWalk;
  * <p>Uses the time as stored in annotated tags if available, or else the commit time of the tagged
  * commit. Non-commits are given {@link Long#MIN_VALUE}, rather than searching for occurrences in
  * the entire repository.
+ *
+ * <p>Also keeps the times of the tags of each repository, so that tags can be listed by time
+ * without reading every tag on each request. Optionally backed by a {@link FileTagTimeStore}, so
+ * that this holds after a restart too.
  */
 public class TimeCache {
+  static final long DEFAULT_MAXIMUM_SIZE = 10 << 10;
+
   public static CacheBuilder<Object, Object> defaultBuilder() {
-    return CacheBuilder.newBuilder().maximumSize(10 << 10);
+    return CacheBuilder.newBuilder().maximumSize(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /** Default maximum weight of the cache of tag indexes, in tags. */
+  public static final long DEFAULT_MAXIMUM_TAG_INDEX_WEIGHT = 1 << 20;
+
+  public static CacheBuilder<String, TagIndex> defaultTagIndexBuilder() {
+    return tagIndexWeigher(CacheBuilder.newBuilder())
+        .maximumWeight(DEFAULT_MAXIMUM_TAG_INDEX_WEIGHT);
+  }
+
+  public static CacheBuilder<String, TagIndex> tagIndexWeigher(
+      CacheBuilder<? super String, ? super TagIndex> builder) {
+    return builder.weigher((k, v) -> 1 + v.byName.size());
   }
 
   private final Cache<ObjectId, Long> cache;
+  private final Cache<String, TagIndex> tagIndexes;
+  @Nullable private final FileTagTimeStore store;
 
   public TimeCache() {
     this(defaultBuilder());
   }
 
   public TimeCache(CacheBuilder<Object, Object> builder) {
+    this(builder, defaultTagIndexBuilder(), null);
+  }
+
+  /**
+   * @param builder builder for the cache of times by object ID.
+   * @param tagIndexBuilder builder for the cache of the tag times of each repository, keyed on
+   *     repository identifier.
+   * @param store store in which to persist the tag times of each repository, or null to keep
+   *     them in memory only.
+   */
+  public TimeCache(
+      CacheBuilder<Object, Object> builder,
+      CacheBuilder<? super String, ? super TagIndex> tagIndexBuilder,
+      @Nullable FileTagTimeStore store) {
     this.cache = builder.build();
+    this.tagIndexes = tagIndexBuilder.build();
+    this.store = store;
   }
 
   public Cache<?, ?> getCache() {
     return cache;
   }
 
+  @Nullable
+  public FileTagTimeStore getStore() {
+    return store;
+  }
+
   Long getTime(final RevWalk walk, final ObjectId id) throws IOException {
     try {
       return cache.get(
@@ -80,4 +135,129 @@ public class TimeCache {
       throw new IOException(e);
     }
   }
+
+  /**
+   * Get the tags of a repository, newest first.
+   *
+   * <p>Tags are ordered by {@link #getTime(RevWalk, ObjectId)}, then by name. The times are kept
+   * in an index per repository, keyed on tag name and ID, which is updated incrementally: only
+   * tags created or moved since the previous call are read, so when the tags have not changed no
+   * objects are read at all. If the index is not in memory, times are looked up by ID in the
+   * {@link FileTagTimeStore}, if any, before reading tags, and the store is then updated with any
+   * tags that were read. Later changes are only kept in memory, so that each new tag does not
+   * rewrite the stored times; tags missing from the store are read again after a restart.
+   *
+   * @param repo repository to list the tags of.
+   * @param walk walk to read tags that are not yet indexed with.
+   * @param limit maximum number of tags to return, or 0 for all tags.
+   * @return the newest tags.
+   * @throws IOException if an error occurred reading the refs or objects.
+   */
+  List<Ref> getTagsByTime(Repository repo, RevWalk walk, int limit) throws IOException {
+    List<Ref> tags = repo.getRefDatabase().getRefsByPrefix(Constants.R_TAGS);
+    String key = repo.getIdentifier();
+    TagIndex index = tagIndexes.getIfPresent(key);
+    if (index == null || !index.matches(tags)) {
+      TagIndex previous = index;
+      Map<ObjectId, Long> stored = null;
+      if (previous == null && store != null) {
+        stored = store.get(key);
+      }
+      // Concurrent updates may race; each result is complete, so the last one put wins.
+      index = new TagIndex(previous, stored, tags, this, walk);
+      tagIndexes.put(key, index);
+      if (previous == null && store != null && index.readTags) {
+        store.put(key, index.getTimes());
+      }
+    }
+    List<Ref> sorted = index.sorted;
+    return limit > 0 && limit < sorted.size() ? sorted.subList(0, limit) : sorted;
+  }
+
+  /** Immutable snapshot of the tags of a repository and their times. */
+  public static class TagIndex {
+    private static final Comparator<TaggedTime> ORDER =
+        comparingLong((TaggedTime t) -> t.time)
+            .reversed()
+            .thenComparing(t -> t.ref, RefComparator.INSTANCE);
+
+    private static class TaggedTime {
+      final Ref ref;
+      final long time;
+
+      TaggedTime(Ref ref, long time) {
+        this.ref = ref;
+        this.time = time;
+      }
+    }
+
+    final ImmutableMap<String, TaggedTime> byName;
+    final ImmutableList<Ref> sorted;
+    /** Whether any tag time was missing from the previous index and store. */
+    final boolean readTags;
+
+    TagIndex(
+        @Nullable TagIndex previous,
+        @Nullable Map<ObjectId, Long> stored,
+        List<Ref> tags,
+        TimeCache timeCache,
+        RevWalk walk)
+        throws IOException {
+      ImmutableMap.Builder<String, TaggedTime> b =
+          ImmutableMap.builderWithExpectedSize(tags.size());
+      List<TaggedTime> times = new ArrayList<>(tags.size());
+      boolean read = false;
+      for (Ref ref : tags) {
+        TaggedTime t = previous != null ? previous.byName.get(ref.getName()) : null;
+        if (t == null || !sameId(t.ref, ref)) {
+          ObjectId id = ref.getObjectId();
+          Long time = id != null && stored != null ? stored.get(id) : null;
+          if (time == null && id != null) {
+            time = timeCache.getTime(walk, id);
+            read = true;
+          }
+          t = new TaggedTime(ref, time != null ? time : Long.MIN_VALUE);
+        }
+        b.put(ref.getName(), t);
+        times.add(t);
+      }
+      byName = b.build();
+      times.sort(ORDER);
+      ImmutableList.Builder<Ref> sb = ImmutableList.builderWithExpectedSize(times.size());
+      for (TaggedTime t : times) {
+        sb.add(t.ref);
+      }
+      sorted = sb.build();
+      readTags = read;
+    }
+
+    Map<ObjectId, Long> getTimes() {
+      Map<ObjectId, Long> times = new HashMap<>();
+      for (TaggedTime t : byName.values()) {
+        if (t.ref.getObjectId() != null) {
+          times.put(t.ref.getObjectId(), t.time);
+        }
+      }
+      return times;
+    }
+
+    boolean matches(List<Ref> tags) {
+      if (tags.size() != byName.size()) {
+        return false;
+      }
+      for (Ref ref : tags) {
+        TaggedTime t = byName.get(ref.getName());
+        if (t == null || !sameId(t.ref, ref)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static boolean sameId(Ref a, Ref b) {
+      return a.getObjectId() != null
+          ? a.getObjectId().equals(b.getObjectId())
+          : b.getObjectId() == null;
+    }
+  }
 }
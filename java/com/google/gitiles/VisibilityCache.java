@@ -26,15 +26,20 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.collect.ImmutableList;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefDatabase;
@@ -42,16 +47,28 @@ import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 
-/** Cache of per-user object visibility. */
+/**
+ * Cache of per-user object visibility.
+ *
+ * <p>Positive results are kept until evicted: a commit that was reachable from a ref stays
+ * reachable unless that ref is rewound, which is rare enough to not be worth rechecking. Negative
+ * results are tagged with a snapshot of the repository's refs and are discarded once the refs
+ * change, so a push makes newly reachable commits visible immediately.
+ *
+ * <p>Results are shared by all users in the same {@link GitilesAccess#getAclClassKey() ACL class},
+ * and concurrent misses for the same object are computed only once.
+ */
 public class VisibilityCache {
+  /** Description passed to the checker for the ids a caller already knows to be reachable. */
+  static final String KNOWN_REACHABLE = "knownReachable";
 
   private static class Key {
-    private final Object user;
+    private final Object aclClass;
     private final String repositoryName;
     private final ObjectId objectId;
 
-    private Key(Object user, String repositoryName, ObjectId objectId) {
-      this.user = checkNotNull(user, "user");
+    private Key(Object aclClass, String repositoryName, ObjectId objectId) {
+      this.aclClass = checkNotNull(aclClass, "aclClass");
       this.repositoryName = checkNotNull(repositoryName, "repositoryName");
       this.objectId = checkNotNull(objectId, "objectId").copy();
     }
@@ -60,7 +77,7 @@ public class VisibilityCache {
     public boolean equals(Object o) {
       if (o instanceof Key) {
         Key k = (Key) o;
-        return Objects.equals(user, k.user)
+        return Objects.equals(aclClass, k.aclClass)
             && Objects.equals(repositoryName, k.repositoryName)
             && Objects.equals(objectId, k.objectId);
       }
@@ -69,13 +86,13 @@ public class VisibilityCache {
 
     @Override
     public int hashCode() {
-      return hash(user, repositoryName, objectId);
+      return hash(aclClass, repositoryName, objectId);
     }
 
     @Override
     public String toString() {
       return toStringHelper(this)
-          .add("user", user)
+          .add("aclClass", aclClass)
           .add("repositoryName", repositoryName)
           .add("objectId", objectId)
           .toString();
@@ -83,10 +100,17 @@ public class VisibilityCache {
   }
 
   private final Cache<Key, Boolean> cache;
+  private final Cache<Key, ObjectId> negativeCache;
   private final VisibilityChecker checker;
+  private final ConcurrentMap<Key, CompletableFuture<Boolean>> inFlight =
+      new ConcurrentHashMap<>();
+  // Callers use one walk per request, so memoizing snapshots per walk lists and hashes the refs at
+  // most once per request.
+  private final Cache<RevWalk, ObjectId> refsSnapshots =
+      CacheBuilder.newBuilder().weakKeys().build();
 
   public static CacheBuilder<Object, Object> defaultBuilder() {
-    return CacheBuilder.newBuilder().maximumSize(1 << 10).expireAfterWrite(30, TimeUnit.MINUTES);
+    return CacheBuilder.newBuilder().maximumSize(1 << 10);
   }
 
   public VisibilityCache() {
@@ -117,13 +141,20 @@ public class VisibilityCache {
    */
   public VisibilityCache(VisibilityChecker checker, CacheBuilder<Object, Object> builder) {
     this.cache = builder.build();
+    this.negativeCache = builder.build();
     this.checker = checker;
   }
 
+  /** @return cache of positive results. */
   public Cache<?, Boolean> getCache() {
     return cache;
   }
 
+  /** @return cache of negative results, mapped to the refs snapshot they were computed against. */
+  public Cache<?, ObjectId> getNegativeCache() {
+    return negativeCache;
+  }
+
   @VisibleForTesting
   boolean isVisible(
       final Repository repo,
@@ -132,21 +163,108 @@ public class VisibilityCache {
       final ObjectId id,
       final ObjectId... knownReachable)
       throws IOException {
+    Key key = new Key(access.getAclClassKey(), access.getRepositoryName(), id);
+    if (cache.getIfPresent(key) != null) {
+      return true;
+    }
+
+    ObjectId negative = negativeCache.getIfPresent(key);
+    if (negative != null && negative.equals(getRefsSnapshot(repo, walk))) {
+      return false;
+    }
+
+    if (knownReachable.length > 0) {
+      // Results depend on knownReachable, so they can't be shared with concurrent requests.
+      return load(key, repo, walk, id, Arrays.asList(knownReachable));
+    }
+
+    CompletableFuture<Boolean> future = new CompletableFuture<>();
+    CompletableFuture<Boolean> running = inFlight.putIfAbsent(key, future);
+    if (running != null) {
+      return await(running);
+    }
     try {
-      return cache.get(
-          new Key(access.getUserKey(), access.getRepositoryName(), id),
-          () -> isVisible(repo, walk, id, Arrays.asList(knownReachable)));
+      boolean visible = load(key, repo, walk, id, ImmutableList.of());
+      future.complete(visible);
+      return visible;
+    } catch (IOException | RuntimeException | Error e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+  private static boolean await(CompletableFuture<Boolean> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
     } catch (ExecutionException e) {
       Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
       throw new IOException(e);
-    } catch (ExecutionError e) {
+    }
+  }
+
+  private boolean load(
+      Key key, Repository repo, RevWalk walk, ObjectId id, Collection<ObjectId> knownReachable)
+      throws IOException {
+    // Take the snapshot before walking, so that a negative result is never tagged with refs that
+    // might already reach the object.
+    ObjectId refsSnapshot = getRefsSnapshot(repo, walk);
+    boolean visible;
+    try {
+      visible = isVisible(repo, walk, id, knownReachable);
+    } catch (StackOverflowError e) {
       // markUninteresting may overflow on pathological repos with very long merge chains. Play it
       // safe and return false rather than letting the error propagate.
-      if (e.getCause() instanceof StackOverflowError) {
-        return false;
+      return false;
+    }
+    if (visible) {
+      cache.put(key, true);
+      negativeCache.invalidate(key);
+    } else {
+      negativeCache.put(key, refsSnapshot);
+    }
+    return visible;
+  }
+
+  private ObjectId getRefsSnapshot(Repository repo, RevWalk walk) throws IOException {
+    try {
+      return refsSnapshots.get(walk, () -> getRefsSnapshot(repo));
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Compute a token identifying the current state of the repository's refs.
+   *
+   * <p>The default implementation hashes the name and value of every ref. Implementations backed by
+   * a ref database with a cheaper version marker may override this. It is only called when a
+   * lookup misses the cache of positive results, and at most once per walk, so a request sees a
+   * single snapshot of the refs.
+   *
+   * @param repo repository.
+   * @return token that changes whenever any ref is created, updated or deleted.
+   * @throws IOException the reference space cannot be accessed.
+   */
+  protected ObjectId getRefsSnapshot(Repository repo) throws IOException {
+    MessageDigest md = Constants.newMessageDigest();
+    byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+    for (Ref ref : repo.getRefDatabase().getRefs()) {
+      md.update(Constants.encode(ref.getName()));
+      ObjectId refId = ref.getObjectId();
+      if (refId != null) {
+        refId.copyRawTo(buf, 0);
+        md.update(buf);
       }
-      throw e;
+      md.update((byte) 0);
     }
+    return ObjectId.fromRaw(md.digest());
   }
 
   boolean isVisible(Repository repo, RevWalk walk, ObjectId id, Collection<ObjectId> knownReachable)
@@ -166,7 +284,7 @@ public class VisibilityCache {
     // Check heads first under the assumption that most requests are for refs close to a head. Tags
     // tend to be much further back in history and just clutter up the priority queue in the common
     // case.
-    return checker.isReachableFrom("knownReachable", walk, commit, knownReachable)
+    return checker.isReachableFrom(KNOWN_REACHABLE, walk, commit, knownReachable)
         || isReachableFromRefs("heads", walk, commit, refDb.getRefsByPrefix(R_HEADS).stream())
         || isReachableFromRefs("tags", walk, commit, refDb.getRefsByPrefix(R_TAGS).stream())
         || isReachableFromRefs(
@@ -19,16 +19,18 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Maps;
+import com.google.gitiles.Abbreviator;
 import com.google.gitiles.BaseServlet;
 import com.google.gitiles.BlobSoyData;
 import com.google.gitiles.CommitSoyData;
 import com.google.gitiles.DateFormatter;
 import com.google.gitiles.DateFormatter.Format;
+import com.google.gitiles.FormatType;
 import com.google.gitiles.GitilesAccess;
 import com.google.gitiles.GitilesRequestFailureException;
 import com.google.gitiles.GitilesRequestFailureException.FailureReason;
 import com.google.gitiles.GitilesView;
+import com.google.gitiles.HighlightCache;
 import com.google.gitiles.Renderer;
 import com.google.gitiles.ViewFilter;
 import com.google.gitiles.blame.cache.BlameCache;
@@ -36,13 +38,16 @@ import com.google.gitiles.blame.cache.Region;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.http.server.ServletUtils;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
@@ -60,10 +65,25 @@ public class BlameServlet extends BaseServlet {
   private static final Logger log = LoggerFactory.getLogger(BlameServlet.class);
 
   private final BlameCache cache;
+  @Nullable private final HighlightCache highlightCache;
 
   public BlameServlet(GitilesAccess.Factory accessFactory, Renderer renderer, BlameCache cache) {
+    this(accessFactory, renderer, cache, null);
+  }
+
+  public BlameServlet(
+      GitilesAccess.Factory accessFactory,
+      Renderer renderer,
+      BlameCache cache,
+      @Nullable HighlightCache highlightCache) {
     super(renderer, accessFactory);
     this.cache = checkNotNull(cache, "cache");
+    this.highlightCache = highlightCache;
+  }
+
+  @Override
+  protected String getEtag(HttpServletRequest req, FormatType format) {
+    return getViewEtag(req, format);
   }
 
   @Override
@@ -80,7 +100,8 @@ public class BlameServlet extends BaseServlet {
 
       String title = "Blame - " + view.getPathPart();
       Map<String, ?> blobData =
-          new BlobSoyData(rw.getObjectReader(), view).toSoyData(view.getPathPart(), result.blobId);
+          new BlobSoyData(rw.getObjectReader(), view, highlightCache)
+              .toSoyData(view.getPathPart(), result.blobId);
       if (blobData.get("lines") != null) {
         DateFormatter df = new DateFormatter(access, Format.ISO);
         renderHtml(
@@ -215,7 +236,14 @@ public class BlameServlet extends BaseServlet {
   private static List<ImmutableMap<String, Object>> toSoyData(
       GitilesView view, ObjectReader reader, List<Region> regions, DateFormatter df)
       throws IOException {
-    Map<ObjectId, String> abbrevShas = Maps.newHashMap();
+    List<ObjectId> sourceCommits = new ArrayList<>(regions.size());
+    for (Region r : regions) {
+      if (r.getSourceCommit() != null) {
+        sourceCommits.add(r.getSourceCommit());
+      }
+    }
+    Map<ObjectId, AbbreviatedObjectId> abbrevShas =
+        new Abbreviator(reader).abbreviateAll(sourceCommits);
     ImmutableList.Builder<ImmutableMap<String, Object>> result = ImmutableList.builder();
 
     for (int i = 0; i < regions.size(); i++) {
@@ -226,13 +254,8 @@ public class BlameServlet extends BaseServlet {
         // upstream, but handle it for now.
         result.add(NULLS.get(c));
       } else {
-        String abbrevSha = abbrevShas.get(r.getSourceCommit());
-        if (abbrevSha == null) {
-          abbrevSha = reader.abbreviate(r.getSourceCommit()).name();
-          abbrevShas.put(r.getSourceCommit(), abbrevSha);
-        }
         ImmutableMap.Builder<String, Object> e = ImmutableMap.builder();
-        e.put("abbrevSha", abbrevSha);
+        e.put("abbrevSha", abbrevShas.get(r.getSourceCommit()).name());
         String blameParent = "";
         String blameText = "blame";
         if (view.getRevision().getName().equals(r.getSourceCommit().name())) {
@@ -14,8 +14,11 @@
 
 package com.google.gitiles.blame.cache;
 
+import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.hash;
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.eclipse.jgit.lib.ObjectId.zeroId;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
@@ -31,25 +34,66 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
 import org.eclipse.jgit.blame.BlameGenerator;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.QuotedString;
 
-/** Guava implementation of BlameCache, weighted by number of blame regions. */
+/**
+ * Guava implementation of BlameCache, weighted by estimated heap usage in bytes.
+ *
+ * <p>Cached results are held in a compact columnar form with deduplicated commits, authors and
+ * paths; {@link Region} objects are only created when a result is read.
+ *
+ * <p>Optionally backed by a {@link FileBlameStore}, which is consulted on heap cache misses and
+ * persists results across evictions and restarts.
+ *
+ * <p>Results of {@link #findLastCommit} are cached too, and a lookup from a descendant reuses the
+ * cached result of the nearest ancestor reachable through commits that did not touch the path.
+ *
+ * <p>When the blame of the previous version of a file is already cached, blame for a new version is
+ * derived from it with {@link IncrementalBlame} instead of being recomputed from scratch.
+ */
 public class BlameCacheImpl implements BlameCache {
+  private static final int LAST_COMMIT_CACHE_SIZE = 10 << 10;
+  private static final int MAX_LAST_COMMIT_STEPS = 1000;
+
+  /** Default maximum weight of the cache, in bytes. */
+  public static final long DEFAULT_MAXIMUM_WEIGHT = 2 << 20;
+
   public static CacheBuilder<Key, List<Region>> defaultBuilder() {
-    return weigher(CacheBuilder.newBuilder()).maximumWeight(10 << 10);
+    return weigher(CacheBuilder.newBuilder()).maximumWeight(DEFAULT_MAXIMUM_WEIGHT);
   }
 
   public static CacheBuilder<Key, List<Region>> weigher(
       CacheBuilder<? super Key, ? super List<Region>> builder) {
-    return builder.weigher((k, v) -> v.size());
+    return builder.weigher(BlameCacheImpl::weigh);
+  }
+
+  // Rough per-entry overhead of the key, its strings and the cache entry itself.
+  private static final int ENTRY_OVERHEAD = 128;
+  // Rough size of an uncompacted Region, not counting shared commits and authors.
+  private static final int REGION_SIZE = 48;
+
+  private static int weigh(Key key, List<Region> regions) {
+    long w = ENTRY_OVERHEAD + 2L * key.path.length();
+    if (regions instanceof CompactRegionList) {
+      w += ((CompactRegionList) regions).getWeight();
+    } else {
+      w += (long) REGION_SIZE * regions.size();
+    }
+    return (int) Math.min(w, Integer.MAX_VALUE);
   }
 
   public static class Key {
@@ -90,6 +134,10 @@ public class BlameCacheImpl implements BlameCache {
   }
 
   private final Cache<Key, List<Region>> cache;
+  @Nullable private final FileBlameStore store;
+  // Values of zeroId() record that no commit modified the path.
+  private final Cache<Key, ObjectId> lastCommits =
+      CacheBuilder.newBuilder().maximumSize(LAST_COMMIT_CACHE_SIZE).build();
 
   public BlameCacheImpl() {
     this(defaultBuilder());
@@ -99,12 +147,39 @@ public class BlameCacheImpl implements BlameCache {
     return cache;
   }
 
+  public Cache<Key, ObjectId> getLastCommitCache() {
+    return lastCommits;
+  }
+
+  @Nullable
+  public FileBlameStore getStore() {
+    return store;
+  }
+
   public Callable<List<Region>> newLoader(Key key, Repository repo) {
-    return () -> loadBlame(key, repo);
+    return () -> {
+      List<Region> regions = store != null ? store.get(key) : null;
+      if (regions == null) {
+        regions = loadIncrementalBlame(key, repo);
+        if (regions == null) {
+          regions = loadBlame(key, repo);
+        }
+        if (store != null) {
+          store.put(key, regions);
+        }
+      }
+      return CompactRegionList.copyOf(regions);
+    };
   }
 
   public BlameCacheImpl(CacheBuilder<? super Key, ? super List<Region>> builder) {
+    this(builder, null);
+  }
+
+  public BlameCacheImpl(
+      CacheBuilder<? super Key, ? super List<Region>> builder, @Nullable FileBlameStore store) {
     this.cache = builder.build();
+    this.store = store;
   }
 
   @Override
@@ -118,18 +193,138 @@ public class BlameCacheImpl implements BlameCache {
   }
 
   @Override
+  @Nullable
   public ObjectId findLastCommit(Repository repo, ObjectId commitId, String path)
       throws IOException {
-    // Default implementation does no caching.
+    Key key = new Key(commitId, path);
+    ObjectId result = lastCommits.getIfPresent(key);
+    if (result == null) {
+      try (RevWalk rw = new RevWalk(repo)) {
+        result = firstNonNull(walkToLastCommit(rw, rw.parseCommit(commitId), path), zeroId());
+      }
+      lastCommits.put(key, result);
+    }
+    return !result.equals(zeroId()) ? result : null;
+  }
+
+  /**
+   * Find the last commit that modified a path.
+   *
+   * <p>Walks single-parent commits that leave the path untouched one at a time, since such a commit
+   * has the same answer as its parent; the walk stops early at any commit whose answer is already
+   * cached. Merges, root commits and long runs of untouched commits fall back to a {@link RevWalk}
+   * with a path filter.
+   *
+   * @return the last commit, {@code zeroId()} if a cached negative result was reached, or
+   *     null if no commit modified the path.
+   */
+  @Nullable
+  private ObjectId walkToLastCommit(RevWalk rw, RevCommit start, String path) throws IOException {
+    TreeFilter filter =
+        AndTreeFilter.create(PathFilterGroup.createFromStrings(path), TreeFilter.ANY_DIFF);
+    RevCommit c = start;
+    for (int i = 0; i < MAX_LAST_COMMIT_STEPS; i++) {
+      if (c != start) {
+        ObjectId cached = lastCommits.getIfPresent(new Key(c, path));
+        if (cached != null) {
+          return cached;
+        }
+      }
+      if (c.getParentCount() != 1) {
+        break;
+      }
+      RevCommit parent = rw.parseCommit(c.getParent(0));
+      if (modifies(rw.getObjectReader(), filter, c, parent)) {
+        return c.copy();
+      }
+      c = parent;
+    }
+
+    rw.reset();
+    rw.markStart(c);
+    rw.setRewriteParents(false);
+    // Don't use rename detection, even though BlameGenerator does. It is not
+    // possible for a commit to modify a path when not doing rename detection
+    // but to not modify the same path when taking renames into account.
+    rw.setTreeFilter(filter);
+    RevCommit last = rw.next();
+    return last != null ? last.copy() : null;
+  }
+
+  private static boolean modifies(
+      ObjectReader reader, TreeFilter filter, RevCommit commit, RevCommit parent)
+      throws IOException {
+    try (TreeWalk tw = new TreeWalk(reader)) {
+      tw.setFilter(filter);
+      tw.setRecursive(true);
+      tw.reset(commit.getTree(), parent.getTree());
+      return tw.next();
+    }
+  }
+
+  @Nullable
+  private List<Region> getIfCached(Key key) {
+    List<Region> regions = cache.getIfPresent(key);
+    if (regions == null && store != null) {
+      regions = store.get(key);
+    }
+    return regions;
+  }
+
+  /**
+   * Derive blame from the cached blame of the previous version of the file.
+   *
+   * @return blame regions, or null if the commit is a merge, the file was added or renamed, or the
+   *     previous version's blame is not cached.
+   */
+  @Nullable
+  private List<Region> loadIncrementalBlame(Key key, Repository repo) throws IOException {
     try (RevWalk rw = new RevWalk(repo)) {
-      rw.markStart(rw.parseCommit(commitId));
-      rw.setRewriteParents(false);
-      // Don't use rename detection, even though BlameGenerator does. It is not
-      // possible for a commit to modify a path when not doing rename detection
-      // but to not modify the same path when taking renames into account.
-      rw.setTreeFilter(
-          AndTreeFilter.create(PathFilterGroup.createFromStrings(path), TreeFilter.ANY_DIFF));
-      return rw.next();
+      RevCommit commit = rw.parseCommit(key.commitId);
+      if (commit.getParentCount() != 1) {
+        return null;
+      }
+      RevCommit parent = rw.parseCommit(commit.getParent(0));
+      ObjectReader reader = rw.getObjectReader();
+      ObjectId oldBlob = blobId(reader, parent, key.path);
+      ObjectId newBlob = blobId(reader, commit, key.path);
+      if (oldBlob == null || newBlob == null) {
+        return null;
+      }
+
+      ObjectId prevCommit = findLastCommit(repo, parent, key.path);
+      if (prevCommit == null
+          || !oldBlob.equals(blobId(reader, rw.parseCommit(prevCommit), key.path))) {
+        return null;
+      }
+      List<Region> previous = getIfCached(new Key(prevCommit, key.path));
+      if (previous == null) {
+        return null;
+      }
+
+      byte[] oldRaw = reader.open(oldBlob, OBJ_BLOB).getCachedBytes();
+      byte[] newRaw = reader.open(newBlob, OBJ_BLOB).getCachedBytes();
+      if (RawText.isBinary(oldRaw) || RawText.isBinary(newRaw)) {
+        return null;
+      }
+      return IncrementalBlame.apply(
+          previous,
+          new RawText(oldRaw),
+          new RawText(newRaw),
+          key.path,
+          commit.copy(),
+          commit.getAuthorIdent());
+    }
+  }
+
+  @Nullable
+  private static ObjectId blobId(ObjectReader reader, RevCommit commit, String path)
+      throws IOException {
+    try (TreeWalk tw = TreeWalk.forPath(reader, path, commit.getTree())) {
+      if (tw == null || (tw.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) {
+        return null;
+      }
+      return tw.getObjectId(0);
     }
   }
 
@@ -0,0 +1,170 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles.blame.cache;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+
+/**
+ * Immutable list of blame regions stored in primitive arrays.
+ *
+ * <p>Commits, authors and strings are deduplicated into tables, and each region is a handful of
+ * ints indexing into them. {@link Region} objects are only materialized on {@link #get(int)}, so
+ * callers get fresh instances whose transient start may be modified freely.
+ */
+final class CompactRegionList extends AbstractList<Region> implements RandomAccess {
+  // Rough JVM object layout costs, used to estimate retained size.
+  private static final int OBJECT_HEADER = 16;
+  private static final int ARRAY_HEADER = 16;
+  private static final int REFERENCE = 8;
+
+  private static final int ID_LENGTH = Constants.OBJECT_ID_LENGTH;
+
+  static CompactRegionList copyOf(List<Region> regions) {
+    if (regions instanceof CompactRegionList) {
+      return (CompactRegionList) regions;
+    }
+    return new CompactRegionList(regions);
+  }
+
+  /** Line where each region starts; has one extra trailing entry for the end of the last region. */
+  private final int[] starts;
+  /** Index into the commit tables for each region, or -1 for an unblamed region. */
+  private final int[] regionCommits;
+  /** Index into {@link #strings} of each region's path, or -1 for an unblamed region. */
+  private final int[] regionPaths;
+
+  /** Raw commit ids, concatenated. */
+  private final byte[] commitIds;
+  private final int[] authorNames;
+  private final int[] authorEmails;
+  private final long[] authorTimes;
+  private final int[] authorTzs;
+
+  private final String[] strings;
+  private final long weight;
+
+  private CompactRegionList(List<Region> regions) {
+    int n = regions.size();
+    starts = new int[n + 1];
+    regionCommits = new int[n];
+    regionPaths = new int[n];
+
+    Map<ObjectId, Integer> commitIndex = new HashMap<>();
+    Map<String, Integer> stringIndex = new HashMap<>();
+    byte[] ids = new byte[ID_LENGTH * n];
+    int[] names = new int[n];
+    int[] emails = new int[n];
+    long[] times = new long[n];
+    int[] tzs = new int[n];
+
+    int start = 0;
+    for (int i = 0; i < n; i++) {
+      Region r = regions.get(i);
+      starts[i] = start;
+      start += r.getCount();
+      if (r.getSourceCommit() == null) {
+        regionCommits[i] = -1;
+        regionPaths[i] = -1;
+        continue;
+      }
+      regionPaths[i] = intern(stringIndex, r.getSourcePath());
+      Integer c = commitIndex.get(r.getSourceCommit());
+      if (c == null) {
+        c = commitIndex.size();
+        commitIndex.put(r.getSourceCommit(), c);
+        r.getSourceCommit().copyRawTo(ids, ID_LENGTH * c);
+        PersonIdent author = r.getSourceAuthor();
+        names[c] = intern(stringIndex, author.getName());
+        emails[c] = intern(stringIndex, author.getEmailAddress());
+        times[c] = author.getWhen().getTime();
+        tzs[c] = author.getTimeZoneOffset();
+      }
+      regionCommits[i] = c;
+    }
+    starts[n] = start;
+
+    int commits = commitIndex.size();
+    commitIds = Arrays.copyOf(ids, ID_LENGTH * commits);
+    authorNames = Arrays.copyOf(names, commits);
+    authorEmails = Arrays.copyOf(emails, commits);
+    authorTimes = Arrays.copyOf(times, commits);
+    authorTzs = Arrays.copyOf(tzs, commits);
+    strings = new String[stringIndex.size()];
+    for (Map.Entry<String, Integer> e : stringIndex.entrySet()) {
+      strings[e.getValue()] = e.getKey();
+    }
+    weight = computeWeight();
+  }
+
+  private static int intern(Map<String, Integer> index, String s) {
+    Integer i = index.get(s);
+    if (i == null) {
+      i = index.size();
+      index.put(s, i);
+    }
+    return i;
+  }
+
+  private long computeWeight() {
+    long w = OBJECT_HEADER + 10 * REFERENCE + 8;
+    w += intArray(starts.length) + intArray(regionCommits.length) + intArray(regionPaths.length);
+    w += ARRAY_HEADER + commitIds.length;
+    w += intArray(authorNames.length) + intArray(authorEmails.length);
+    w += ARRAY_HEADER + 8L * authorTimes.length + intArray(authorTzs.length);
+    w += ARRAY_HEADER + (long) REFERENCE * strings.length;
+    for (String s : strings) {
+      // String object plus its backing array, assuming the worst case of two bytes per char.
+      w += OBJECT_HEADER + 8 + ARRAY_HEADER + 2L * s.length();
+    }
+    return w;
+  }
+
+  private static long intArray(int length) {
+    return ARRAY_HEADER + 4L * length;
+  }
+
+  /** @return estimated number of bytes retained by this list. */
+  long getWeight() {
+    return weight;
+  }
+
+  @Override
+  public int size() {
+    return regionCommits.length;
+  }
+
+  @Override
+  public Region get(int i) {
+    int start = starts[i];
+    int end = starts[i + 1];
+    int c = regionCommits[i];
+    if (c < 0) {
+      return new Region(null, null, null, start, end);
+    }
+    ObjectId commit = ObjectId.fromRaw(commitIds, ID_LENGTH * c);
+    PersonIdent author =
+        new PersonIdent(
+            strings[authorNames[c]], strings[authorEmails[c]], authorTimes[c], authorTzs[c]);
+    return new Region(strings[regionPaths[i]], commit, author, start, end);
+  }
+}
@@ -0,0 +1,364 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles.blame.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size-bounded store of blame results in a local directory.
+ *
+ * <p>Blame for a given commit and path never changes, so entries are valid forever and only need
+ * to be evicted to respect the size limit. Each entry is a single file in a compact binary format
+ * with deduplicated strings and commits, ending in a CRC32 checksum; entries that fail validation
+ * are deleted and treated as misses.
+ *
+ * <p>The index of existing entries is rebuilt from the directory on construction, so results
+ * computed before a restart are served immediately. Eviction is least-recently-used, using file
+ * modification times to carry recency across restarts.
+ */
+public class FileBlameStore {
+  private static final Logger log = LoggerFactory.getLogger(FileBlameStore.class);
+
+  private static final int MAGIC = 0x47424c4d; // "GBLM"
+  private static final int VERSION = 1;
+  private static final String SUFFIX = ".blame";
+
+  private final Path dir;
+  private final long maxBytes;
+
+  // Access-ordered map of file name to size, guarded by this.
+  private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes;
+
+  /**
+   * Open a store, creating its directory if necessary.
+   *
+   * @param dir directory to store entries in; should not be shared with anything else.
+   * @param maxBytes maximum total size of all entries.
+   * @throws IOException the directory could not be created or scanned.
+   */
+  public FileBlameStore(Path dir, long maxBytes) throws IOException {
+    checkArgument(maxBytes > 0, "maxBytes must be positive: %s", maxBytes);
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+    Files.createDirectories(dir);
+    scan();
+  }
+
+  public Path getDirectory() {
+    return dir;
+  }
+
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /**
+   * Read an entry.
+   *
+   * @param key key of the entry.
+   * @return regions stored for the key, or null if the entry is missing or invalid.
+   */
+  @Nullable
+  public List<Region> get(BlameCacheImpl.Key key) {
+    String name = fileName(key);
+    synchronized (this) {
+      if (index.get(name) == null) {
+        return null;
+      }
+    }
+    Path file = dir.resolve(name);
+    try {
+      List<Region> regions = decode(key, Files.readAllBytes(file));
+      if (regions != null) {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        return regions;
+      }
+      log.warn("Discarding invalid blame cache entry {} for {}", file, key);
+    } catch (NoSuchFileException e) {
+      // Evicted concurrently.
+    } catch (IOException | RuntimeException e) {
+      log.warn("Error reading blame cache entry " + file, e);
+    }
+    remove(name);
+    return null;
+  }
+
+  /**
+   * Write an entry, evicting older entries to stay within the size limit.
+   *
+   * <p>Errors are logged and otherwise ignored, since the store is only a cache.
+   *
+   * @param key key of the entry.
+   * @param regions blame regions for the key.
+   */
+  public void put(BlameCacheImpl.Key key, List<Region> regions) {
+    String name = fileName(key);
+    Path file = dir.resolve(name);
+    try {
+      byte[] data = encode(key, regions);
+      if (data.length > maxBytes) {
+        return;
+      }
+      Path tmp = Files.createTempFile(dir, "tmp", null);
+      try {
+        Files.write(tmp, data);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+      synchronized (this) {
+        Long old = index.put(name, (long) data.length);
+        totalBytes += data.length - (old != null ? old : 0);
+        evict();
+      }
+    } catch (IOException e) {
+      log.warn("Error writing blame cache entry " + file, e);
+    }
+  }
+
+  private synchronized void remove(String name) {
+    Long size = index.remove(name);
+    if (size != null) {
+      totalBytes -= size;
+    }
+    try {
+      Files.deleteIfExists(dir.resolve(name));
+    } catch (IOException e) {
+      log.warn("Error deleting blame cache entry " + name, e);
+    }
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+    while (totalBytes > maxBytes && it.hasNext()) {
+      Map.Entry<String, Long> e = it.next();
+      it.remove();
+      totalBytes -= e.getValue();
+      try {
+        Files.deleteIfExists(dir.resolve(e.getKey()));
+      } catch (IOException err) {
+        log.warn("Error deleting blame cache entry " + e.getKey(), err);
+      }
+    }
+  }
+
+  private synchronized void scan() throws IOException {
+    Map<Path, FileTime> times = Maps.newHashMap();
+    try (Stream<Path> files = Files.list(dir)) {
+      files.forEach(
+          p -> {
+            String name = p.getFileName().toString();
+            try {
+              if (name.endsWith(SUFFIX)) {
+                times.put(p, Files.getLastModifiedTime(p));
+              } else if (name.startsWith("tmp")) {
+                // Left behind by an interrupted write.
+                Files.deleteIfExists(p);
+              }
+            } catch (IOException e) {
+              log.warn("Error scanning blame cache entry " + p, e);
+            }
+          });
+    }
+    times.entrySet().stream()
+        .sorted(Comparator.comparing(Map.Entry::getValue))
+        .forEach(
+            e -> {
+              try {
+                long size = Files.size(e.getKey());
+                index.put(e.getKey().getFileName().toString(), size);
+                totalBytes += size;
+              } catch (IOException err) {
+                log.warn("Error scanning blame cache entry " + e.getKey(), err);
+              }
+            });
+    evict();
+  }
+
+  private static String fileName(BlameCacheImpl.Key key) {
+    MessageDigest md = Constants.newMessageDigest();
+    byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+    key.getCommitId().copyRawTo(buf, 0);
+    md.update(buf);
+    md.update(key.getPath().getBytes(UTF_8));
+    return ObjectId.fromRaw(md.digest()).name() + SUFFIX;
+  }
+
+  private static byte[] encode(BlameCacheImpl.Key key, List<Region> regions) throws IOException {
+    Map<String, Integer> strings = new LinkedHashMap<>();
+    Map<ObjectId, Integer> commits = new LinkedHashMap<>();
+    Map<ObjectId, PersonIdent> authors = Maps.newHashMap();
+    for (Region r : regions) {
+      if (r.getSourceCommit() != null) {
+        strings.putIfAbsent(r.getSourcePath(), strings.size());
+        if (commits.putIfAbsent(r.getSourceCommit(), commits.size()) == null) {
+          PersonIdent author = r.getSourceAuthor();
+          strings.putIfAbsent(author.getName(), strings.size());
+          strings.putIfAbsent(author.getEmailAddress(), strings.size());
+          authors.put(r.getSourceCommit(), author);
+        }
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    CRC32 crc = new CRC32();
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checksummed(bytes, crc)));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    writeId(out, key.getCommitId());
+    out.writeUTF(key.getPath());
+
+    out.writeInt(strings.size());
+    for (String s : strings.keySet()) {
+      out.writeUTF(s);
+    }
+    out.writeInt(commits.size());
+    for (ObjectId id : commits.keySet()) {
+      PersonIdent author = authors.get(id);
+      writeId(out, id);
+      out.writeInt(strings.get(author.getName()));
+      out.writeInt(strings.get(author.getEmailAddress()));
+      out.writeLong(author.getWhen().getTime());
+      out.writeInt(author.getTimeZoneOffset());
+    }
+    out.writeInt(regions.size());
+    for (Region r : regions) {
+      out.writeInt(r.getCount());
+      if (r.getSourceCommit() != null) {
+        out.writeInt(commits.get(r.getSourceCommit()));
+        out.writeInt(strings.get(r.getSourcePath()));
+      } else {
+        out.writeInt(-1);
+      }
+    }
+    out.flush();
+    new DataOutputStream(bytes).writeLong(crc.getValue());
+    return bytes.toByteArray();
+  }
+
+  @Nullable
+  private static List<Region> decode(BlameCacheImpl.Key key, byte[] data) throws IOException {
+    if (data.length < 8) {
+      return null;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, data.length - 8);
+    DataInputStream in =
+        new DataInputStream(
+            new BufferedInputStream(new ByteArrayInputStream(data, 0, data.length - 8)));
+    if (crc.getValue()
+        != new DataInputStream(new ByteArrayInputStream(data, data.length - 8, 8)).readLong()) {
+      return null;
+    }
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      return null;
+    }
+    if (!readId(in).equals(key.getCommitId()) || !in.readUTF().equals(key.getPath())) {
+      return null;
+    }
+
+    String[] strings = new String[in.readInt()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = in.readUTF();
+    }
+    ObjectId[] commits = new ObjectId[in.readInt()];
+    PersonIdent[] authors = new PersonIdent[commits.length];
+    for (int i = 0; i < commits.length; i++) {
+      commits[i] = readId(in);
+      String name = strings[in.readInt()];
+      String email = strings[in.readInt()];
+      authors[i] = new PersonIdent(name, email, in.readLong(), in.readInt());
+    }
+    int n = in.readInt();
+    ImmutableList.Builder<Region> regions = ImmutableList.builderWithExpectedSize(n);
+    int start = 0;
+    for (int i = 0; i < n; i++) {
+      int count = in.readInt();
+      int commit = in.readInt();
+      if (commit >= 0) {
+        String path = strings[in.readInt()];
+        regions.add(new Region(path, commits[commit], authors[commit], start, start + count));
+      } else {
+        regions.add(new Region(null, null, null, start, start + count));
+      }
+      start += count;
+    }
+    return regions.build();
+  }
+
+  private static void writeId(DataOutputStream out, ObjectId id) throws IOException {
+    byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+    id.copyRawTo(buf, 0);
+    out.write(buf);
+  }
+
+  private static ObjectId readId(DataInputStream in) throws IOException {
+    byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+    in.readFully(buf);
+    return ObjectId.fromRaw(buf);
+  }
+
+  private static OutputStream checksummed(OutputStream out, CRC32 crc) {
+    return new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        crc.update(b);
+        out.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        out.write(b, off, len);
+      }
+    };
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles.blame.cache;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+
+/**
+ * Blame computed from the blame of the previous version of a file.
+ *
+ * <p>For a commit with a single parent, every line that the diff against the parent leaves
+ * untouched keeps the attribution it had in the parent, and every inserted or replaced line is
+ * attributed to the commit itself. This mirrors what {@link org.eclipse.jgit.blame.BlameGenerator}
+ * does for such a commit, using the same diff algorithm, so the result matches a full blame at the
+ * cost of a single diff.
+ */
+public class IncrementalBlame {
+  /**
+   * Compute blame for a new version of a file.
+   *
+   * @param previous blame regions of the old version of the file, in order.
+   * @param oldText contents of the old version.
+   * @param newText contents of the new version.
+   * @param path path of the file in the new commit.
+   * @param commit commit that introduced the new version.
+   * @param author author of {@code commit}.
+   * @return blame regions for the new version, or null if {@code previous} does not describe
+   *     {@code oldText}.
+   */
+  @Nullable
+  public static List<Region> apply(
+      List<Region> previous,
+      RawText oldText,
+      RawText newText,
+      String path,
+      ObjectId commit,
+      PersonIdent author) {
+    int oldLines = 0;
+    for (Region r : previous) {
+      oldLines += r.getCount();
+    }
+    if (oldLines != oldText.size()) {
+      return null;
+    }
+
+    EditList edits = new HistogramDiff().diff(RawTextComparator.DEFAULT, oldText, newText);
+    Slicer slicer = new Slicer(previous);
+    ImmutableList.Builder<Region> result = ImmutableList.builder();
+    int a = 0;
+    int b = 0;
+    for (Edit e : edits) {
+      slicer.copy(result, a, e.getBeginA(), b);
+      if (e.getLengthB() > 0) {
+        result.add(new Region(path, commit, author, e.getBeginB(), e.getEndB()));
+      }
+      a = e.getEndA();
+      b = e.getEndB();
+    }
+    slicer.copy(result, a, oldLines, b);
+    return result.build();
+  }
+
+  /** Copies ranges of old lines, splitting regions at range boundaries. */
+  private static class Slicer {
+    private final List<Region> regions;
+    private int idx;
+    private int regionStart;
+
+    private Slicer(List<Region> regions) {
+      this.regions = regions;
+    }
+
+    /** Copy old lines {@code [from, to)} to new lines starting at {@code dest}. */
+    private void copy(ImmutableList.Builder<Region> out, int from, int to, int dest) {
+      while (from < to) {
+        Region r = regions.get(idx);
+        int regionEnd = regionStart + r.getCount();
+        if (regionEnd <= from) {
+          idx++;
+          regionStart = regionEnd;
+          continue;
+        }
+        int end = Math.min(regionEnd, to);
+        out.add(
+            new Region(
+                r.getSourcePath(),
+                r.getSourceCommit(),
+                r.getSourceAuthor(),
+                dest,
+                dest + end - from));
+        dest += end - from;
+        from = end;
+      }
+    }
+  }
+
+  private IncrementalBlame() {}
+}
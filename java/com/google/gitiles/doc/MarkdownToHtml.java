@@ -21,11 +21,10 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
 import com.google.common.html.types.SafeHtml;
 import com.google.gitiles.GitilesView;
-import com.google.gitiles.ThreadSafePrettifyParser;
+import com.google.gitiles.Highlights;
+import com.google.gitiles.SyntaxHighlighter;
 import com.google.gitiles.doc.html.HtmlBuilder;
 import com.google.gitiles.doc.html.SoyHtmlBuilder;
-import java.util.Collections;
-import java.util.List;
 import javax.annotation.Nullable;
 import org.commonmark.ext.gfm.strikethrough.Strikethrough;
 import org.commonmark.ext.gfm.tables.TableBlock;
@@ -62,7 +61,6 @@ import org.commonmark.node.Visitor;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.revwalk.RevTree;
 import prettify.parser.Prettify;
-import syntaxhighlight.ParseResult;
 
 /**
  * Formats parsed Markdown AST into HTML.
@@ -319,13 +317,13 @@ public class MarkdownToHtml implements Visitor {
   private void codeInPre(String lang, String text) {
     html.open("pre").attribute("class", "code");
     text = printLeadingBlankLines(text);
-    List<ParseResult> parsed = parse(lang, text);
-    if (!parsed.isEmpty()) {
+    Highlights h = highlight(lang, text);
+    if (h != null && !h.isEmpty()) {
       int last = 0;
-      for (ParseResult r : parsed) {
-        span(null, text, last, r.getOffset());
-        last = r.getOffset() + r.getLength();
-        span(r.getStyleKeysString(), text, r.getOffset(), last);
+      for (int i = 0; i < h.size(); i++) {
+        span(null, text, last, h.getStart(i));
+        last = h.getEnd(i);
+        span(h.getStyle(i), text, h.getStart(i), last);
       }
       if (last < text.length()) {
         span(null, text, last, text.length());
@@ -356,15 +354,12 @@ public class MarkdownToHtml implements Visitor {
     }
   }
 
-  private List<ParseResult> parse(@Nullable String lang, String text) {
+  @Nullable
+  private Highlights highlight(@Nullable String lang, String text) {
     if (Strings.isNullOrEmpty(lang)) {
-      return Collections.emptyList();
-    }
-    try {
-      return ThreadSafePrettifyParser.INSTANCE.parse(lang, text);
-    } catch (StackOverflowError e) {
-      return Collections.emptyList();
+      return null;
     }
+    return SyntaxHighlighter.DEFAULT.highlight(lang, text);
   }
 
   @Override
@@ -0,0 +1,74 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AbbreviatorTest {
+  private InMemoryRepository repo;
+  private List<ObjectId> ids;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription("test"));
+    ids = new ArrayList<>();
+    // Enough objects that some abbreviations need more than 7 digits.
+    try (ObjectInserter ins = repo.newObjectInserter()) {
+      for (int i = 0; i < 100000; i++) {
+        ids.add(ins.insert(Constants.OBJ_BLOB, Constants.encode("blob " + i)));
+      }
+      ins.flush();
+    }
+  }
+
+  @Test
+  public void abbreviateMatchesReader() throws Exception {
+    try (ObjectReader reader = repo.newObjectReader()) {
+      Abbreviator abbreviator = new Abbreviator(reader);
+      for (ObjectId id : ids.subList(0, 1000)) {
+        assertThat(abbreviator.abbreviate(id)).isEqualTo(reader.abbreviate(id));
+      }
+    }
+  }
+
+  @Test
+  public void abbreviateAllMatchesReader() throws Exception {
+    try (ObjectReader reader = repo.newObjectReader()) {
+      List<ObjectId> batch = new ArrayList<>(ids);
+      batch.addAll(ids.subList(0, 10));
+      Map<ObjectId, AbbreviatedObjectId> abbrevs = new Abbreviator(reader).abbreviateAll(batch);
+      assertThat(abbrevs).hasSize(ids.size());
+      for (ObjectId id : ids) {
+        assertThat(abbrevs.get(id)).isEqualTo(reader.abbreviate(id));
+      }
+    }
+  }
+}
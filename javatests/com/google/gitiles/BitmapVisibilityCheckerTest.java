@@ -0,0 +1,122 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.eclipse.jgit.internal.storage.dfs.DfsGarbageCollector;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BitmapVisibilityCheckerTest {
+  private InMemoryRepository repo;
+
+  private RevCommit baseCommit;
+  private RevCommit commit1;
+  private RevCommit commit2;
+  private RevCommit commitA;
+  private RevCommit commitB;
+  private RevCommit commitC;
+
+  private BitmapVisibilityChecker checker;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription());
+    try (TestRepository<InMemoryRepository> git = new TestRepository<>(repo)) {
+      baseCommit = git.commit().message("baseCommit").create();
+      commit1 = git.commit().parent(baseCommit).message("commit1").create();
+      commitA = git.commit().parent(baseCommit).message("commitA").create();
+      git.update("master", commit1);
+      git.update("refs/tags/v0.1", commitA);
+
+      // Pack with bitmaps, then add commits that are only reachable by walking.
+      new DfsGarbageCollector(repo).pack(NullProgressMonitor.INSTANCE);
+
+      commit2 = git.commit().parent(commit1).message("commit2").create();
+      commitB = git.commit().parent(commitA).message("commitB").create();
+      commitC = git.commit().parent(commitB).message("commitC").create();
+      git.update("master", commit2);
+    }
+    checker = new BitmapVisibilityChecker();
+  }
+
+  @Test
+  public void hasBitmapIndex() throws IOException {
+    try (RevWalk walk = new RevWalk(repo)) {
+      assertThat(walk.getObjectReader().getBitmapIndex()).isNotNull();
+    }
+  }
+
+  @Test
+  public void reachableFromBitmappedHistory() throws IOException {
+    assertThat(isReachable(baseCommit, commit2, commitA)).isTrue();
+    assertThat(isReachable(commit1, commit2, commitA)).isTrue();
+  }
+
+  @Test
+  public void reachableFromUnpackedTip() throws IOException {
+    assertThat(isReachable(commit2, commit2, commitA)).isTrue();
+    assertThat(isReachable(commitB, commit2, commitC)).isTrue();
+  }
+
+  @Test
+  public void unreachable() throws IOException {
+    assertThat(isReachable(commitB, commit2, commitA)).isFalse();
+    assertThat(isReachable(commitC, commit2, commitA)).isFalse();
+  }
+
+  @Test
+  public void reusesSetForSameStarters() throws IOException {
+    isReachable(commit1, commit2, commitA);
+    isReachable(commitB, commit2, commitA);
+    assertThat(checker.getCache().size()).isEqualTo(1);
+
+    isReachable(commitB, commit2, commitC);
+    assertThat(checker.getCache().size()).isEqualTo(2);
+  }
+
+  @Test
+  public void knownReachableNotCached() throws IOException {
+    List<ObjectId> list = Arrays.asList(commit2, commitC);
+    try (RevWalk walk = new RevWalk(repo)) {
+      assertThat(
+              checker.isReachableFrom(
+                  VisibilityCache.KNOWN_REACHABLE, walk, walk.parseCommit(commitB), list))
+          .isTrue();
+    }
+    assertThat(checker.getCache().size()).isEqualTo(0);
+  }
+
+  private boolean isReachable(RevCommit commit, ObjectId... starters) throws IOException {
+    List<ObjectId> list = Arrays.asList(starters);
+    try (RevWalk walk = new RevWalk(repo)) {
+      return checker.isReachableFrom("test", walk, walk.parseCommit(commit), list);
+    }
+  }
+}
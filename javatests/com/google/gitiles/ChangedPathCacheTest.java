@@ -0,0 +1,88 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChangedPathCacheTest {
+  private TestRepository<DfsRepository> repo;
+  private RevWalk walk;
+  private ChangedPathCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("test")));
+    walk = new RevWalk(repo.getRepository());
+    cache = new ChangedPathCache();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    walk.close();
+  }
+
+  @Test
+  public void changedPathsAndDirectories() throws Exception {
+    RevCommit parent = repo.commit().add("a/b/c", "1").add("d", "1").add("e/f", "1").create();
+    RevCommit c = repo.commit().parent(parent).add("a/b/c", "2").rm("d").create();
+    ChangedPathCache.Filter f = cache.get(walk, walk.parseCommit(c));
+
+    assertThat(f.mightContain("a/b/c")).isTrue();
+    assertThat(f.mightContain("a/b")).isTrue();
+    assertThat(f.mightContain("a")).isTrue();
+    assertThat(f.mightContain("d")).isTrue();
+    assertThat(cache.get(walk, walk.parseCommit(c))).isSameInstanceAs(f);
+  }
+
+  @Test
+  public void unchangedPaths() throws Exception {
+    RevCommit parent = repo.commit().add("a/b/c", "1").add("e/f", "1").create();
+    RevCommit c = repo.commit().parent(parent).add("a/b/c", "2").create();
+    ChangedPathCache.Filter f = cache.get(walk, walk.parseCommit(c));
+
+    // A false positive is possible, but not for all of these.
+    int positives = 0;
+    for (String path : new String[] {"e", "e/f", "a/b/d", "b", "c", "a/b/c/d"}) {
+      if (f.mightContain(path)) {
+        positives++;
+      }
+    }
+    assertThat(positives).isLessThan(2);
+  }
+
+  @Test
+  public void tooManyPathsMatchesAnything() throws Exception {
+    TestRepository<DfsRepository>.CommitBuilder b = repo.commit().parent(repo.commit().create());
+    for (int i = 0; i <= ChangedPathCache.MAX_PATHS; i++) {
+      b.add("f" + i, "1");
+    }
+    RevCommit c = b.create();
+    ChangedPathCache.Filter f = cache.get(walk, walk.parseCommit(c));
+    assertThat(f.mightContain("nonexistent")).isTrue();
+  }
+}
@@ -0,0 +1,63 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gitiles.ContentEncoding.GZIP;
+import static com.google.gitiles.ContentEncoding.IDENTITY;
+import static com.google.gitiles.ContentEncoding.negotiate;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ContentEncodingTest {
+  @Test
+  public void noHeader() throws Exception {
+    assertThat(negotiate((String) null)).isEqualTo(IDENTITY);
+    assertThat(negotiate("")).isEqualTo(IDENTITY);
+  }
+
+  @Test
+  public void gzip() throws Exception {
+    assertThat(negotiate("gzip")).isEqualTo(GZIP);
+    assertThat(negotiate("gzip, deflate, br")).isEqualTo(GZIP);
+    assertThat(negotiate("x-gzip")).isEqualTo(GZIP);
+    assertThat(negotiate("GZip ; Q=0.8")).isEqualTo(GZIP);
+    assertThat(negotiate("*")).isEqualTo(GZIP);
+  }
+
+  @Test
+  public void unsupportedCodings() throws Exception {
+    assertThat(negotiate("br, zstd")).isEqualTo(IDENTITY);
+  }
+
+  @Test
+  public void qValues() throws Exception {
+    assertThat(negotiate("gzip;q=0")).isEqualTo(IDENTITY);
+    assertThat(negotiate("gzip;q=0.5")).isEqualTo(GZIP);
+    assertThat(negotiate("identity;q=1, gzip;q=0.5")).isEqualTo(IDENTITY);
+    assertThat(negotiate("identity;q=0, gzip;q=0.001")).isEqualTo(GZIP);
+    assertThat(negotiate("*;q=0")).isEqualTo(IDENTITY);
+  }
+
+  @Test
+  public void malformedQValueIgnored() throws Exception {
+    assertThat(negotiate("gzip;q=2")).isEqualTo(IDENTITY);
+    assertThat(negotiate("gzip;q=0.0001")).isEqualTo(IDENTITY);
+    assertThat(negotiate("gzip;q=x, gzip")).isEqualTo(GZIP);
+  }
+}
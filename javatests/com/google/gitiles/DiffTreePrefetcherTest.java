@@ -0,0 +1,111 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gitiles.CommitData.MergeDiff;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DiffTreePrefetcherTest {
+  private TestRepository<DfsRepository> repo;
+  private RevCommit tip;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("test")));
+    String contents = "contents\n";
+    for (int i = 0; i < 20; i++) {
+      contents += "line " + i + "\n";
+      tip =
+          repo.branch("master")
+              .commit()
+              .add("foo", contents)
+              .add("file" + i, Integer.toString(i))
+              .create();
+    }
+  }
+
+  @Test
+  public void sameEntriesInSameOrder() throws Exception {
+    List<String> expected = new ArrayList<>();
+    try (RevWalk walk = new RevWalk(repo.getRepository())) {
+      walk.markStart(walk.parseCommit(tip));
+      for (RevCommit c : walk) {
+        List<DiffEntry> entries = CommitData.scanDiffEntries(repo.getRepository(), walk, c);
+        expected.add(c.name() + toString(entries));
+      }
+    }
+
+    List<String> actual = new ArrayList<>();
+    try (RevWalk walk = new RevWalk(repo.getRepository());
+        DiffTreePrefetcher prefetcher =
+            new DiffTreePrefetcher(repo.getRepository(), walk, MergeDiff.OFF, 4)) {
+      walk.markStart(walk.parseCommit(tip));
+      for (RevCommit c : prefetcher) {
+        actual.add(c.name() + toString(prefetcher.get(c)));
+      }
+    }
+    assertThat(actual).containsExactlyElementsIn(expected).inOrder();
+    assertThat(actual).hasSize(20);
+  }
+
+  @Test
+  public void computesQueuedDiffsOnCaller() throws Exception {
+    List<Runnable> queued = new ArrayList<>();
+    try (RevWalk walk = new RevWalk(repo.getRepository());
+        DiffTreePrefetcher prefetcher =
+            new DiffTreePrefetcher(repo.getRepository(), walk, MergeDiff.OFF, queued::add, 4)) {
+      walk.markStart(walk.parseCommit(tip));
+      RevCommit c = prefetcher.iterator().next();
+      assertThat(queued).hasSize(4);
+      // The pool never gets to the queued diffs, so they must not be waited for.
+      assertThat(toString(prefetcher.get(c))).contains("file19");
+    }
+  }
+
+  @Test
+  public void closeBeforeEnd() throws Exception {
+    try (RevWalk walk = new RevWalk(repo.getRepository());
+        DiffTreePrefetcher prefetcher =
+            new DiffTreePrefetcher(repo.getRepository(), walk, MergeDiff.OFF, 4)) {
+      walk.markStart(walk.parseCommit(tip));
+      RevCommit c = prefetcher.iterator().next();
+      assertThat(c).isEqualTo(tip);
+      assertThat(toString(prefetcher.get(c))).contains("file19");
+    }
+  }
+
+  private static String toString(List<DiffEntry> entries) {
+    StringBuilder sb = new StringBuilder();
+    for (DiffEntry e : entries) {
+      sb.append(' ').append(e.getChangeType()).append(':').append(e.getNewPath());
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FileTagTimeStoreTest {
+  private static final ObjectId TAG1 =
+      ObjectId.fromString("0123456789abcdef0123456789abcdef01234567");
+  private static final ObjectId TAG2 =
+      ObjectId.fromString("123456789abcdef0123456789abcdef012345678");
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path dir;
+  private Map<ObjectId, Long> times;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = tmp.newFolder("tags").toPath();
+    times = ImmutableMap.of(TAG1, 1234567890L, TAG2, Long.MIN_VALUE);
+  }
+
+  @Test
+  public void roundTripAcrossRestart() throws Exception {
+    new FileTagTimeStore(dir).put("/repos/foo.git", times);
+
+    FileTagTimeStore store = new FileTagTimeStore(dir);
+    assertThat(store.get("/repos/foo.git")).containsExactlyEntriesIn(times);
+    assertThat(store.get("/repos/bar.git")).isNull();
+
+    store.put("/repos/foo.git", ImmutableMap.of(TAG2, 1L));
+    assertThat(store.get("/repos/foo.git")).containsExactly(TAG2, 1L);
+  }
+
+  @Test
+  public void corruptEntryIsDiscarded() throws Exception {
+    FileTagTimeStore store = new FileTagTimeStore(dir);
+    store.put("/repos/foo.git", times);
+
+    Path file;
+    try (Stream<Path> files = Files.list(dir)) {
+      file = files.findFirst().get();
+    }
+    byte[] data = Files.readAllBytes(file);
+    data[data.length / 2] ^= 1;
+    Files.write(file, data);
+
+    assertThat(store.get("/repos/foo.git")).isNull();
+    assertThat(Files.exists(file)).isFalse();
+  }
+}
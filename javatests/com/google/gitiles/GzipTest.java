@@ -0,0 +1,93 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gitiles.MoreAssert.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GzipTest {
+  @After
+  public void tearDown() {
+    Gzip.setLevel(Deflater.DEFAULT_COMPRESSION);
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    for (String s : new String[] {"", "x", Strings.repeat("gitiles ", 100000)}) {
+      byte[] raw = s.getBytes(UTF_8);
+      assertThat(gunzip(Gzip.compress(raw))).isEqualTo(raw);
+    }
+  }
+
+  @Test
+  public void streamReusesPooledDeflater() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (OutputStream gz = Gzip.compress(out, -1)) {
+        gz.write('a');
+        gz.write(Strings.repeat("b", i * 1000).getBytes(UTF_8));
+        gz.flush();
+      }
+      assertThat(new String(gunzip(out.toByteArray()), UTF_8))
+          .isEqualTo("a" + Strings.repeat("b", i * 1000));
+    }
+  }
+
+  @Test
+  public void level() throws Exception {
+    byte[] raw = Strings.repeat("gitiles ", 1000).getBytes(UTF_8);
+    Gzip.setLevel(Deflater.NO_COMPRESSION);
+    byte[] stored = Gzip.compress(raw);
+    Gzip.setLevel(Deflater.BEST_COMPRESSION);
+    byte[] best = Gzip.compress(raw);
+    assertThat(best.length).isLessThan(stored.length);
+    assertThat(gunzip(stored)).isEqualTo(raw);
+    assertThat(gunzip(best)).isEqualTo(raw);
+  }
+
+  @Test
+  public void invalidLevel() {
+    assertThrows(IllegalArgumentException.class, () -> Gzip.setLevel(10));
+  }
+
+  @Test
+  public void writeAfterClose() throws Exception {
+    OutputStream gz = Gzip.compress(new ByteArrayOutputStream(), -1);
+    gz.close();
+    gz.close();
+    assertThrows(IOException.class, () -> gz.write(new byte[1], 0, 1));
+  }
+
+  private static byte[] gunzip(byte[] b) throws IOException {
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(b))) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class HighlightCacheTest {
+  private static final ObjectId BLOB1 =
+      ObjectId.fromString("1111111111111111111111111111111111111111");
+  private static final ObjectId BLOB2 =
+      ObjectId.fromString("2222222222222222222222222222222222222222");
+
+  private AtomicInteger calls;
+  private HighlightCache cache;
+
+  @Before
+  public void setUp() {
+    calls = new AtomicInteger();
+    SyntaxHighlighter counting =
+        (lang, text) -> {
+          calls.incrementAndGet();
+          return "none".equals(lang)
+              ? null
+              : Highlights.builder().add(0, text.length(), "kwd").build();
+        };
+    cache = new HighlightCache(HighlightCache.defaultBuilder(), counting);
+  }
+
+  @Test
+  public void reusesResultForSameBlobAndLanguage() {
+    Highlights h = cache.get(BLOB1, "java", "int");
+    assertThat(cache.get(BLOB1, "java", "int")).isSameInstanceAs(h);
+    assertThat(calls.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void keyedOnBlobAndLanguage() {
+    cache.get(BLOB1, "java", "int");
+    cache.get(BLOB2, "java", "int");
+    cache.get(BLOB1, "cc", "int");
+    cache.get(BLOB1, null, "int");
+    assertThat(calls.get()).isEqualTo(4);
+    assertThat(cache.getCache().size()).isEqualTo(4);
+  }
+
+  @Test
+  public void cachesUnhighlightedText() {
+    assertThat(cache.get(BLOB1, "none", "int").isEmpty()).isTrue();
+    assertThat(cache.get(BLOB1, "none", "int").isEmpty()).isTrue();
+    assertThat(calls.get()).isEqualTo(1);
+  }
+}
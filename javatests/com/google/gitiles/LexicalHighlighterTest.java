@@ -0,0 +1,126 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Strings;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LexicalHighlighterTest {
+  private final LexicalHighlighter highlighter = new LexicalHighlighter();
+
+  @Test
+  public void java() {
+    assertThat(highlight("java", "public class Foo { // hi\n  String s = \"a\\\"b\"; }"))
+        .containsExactly(
+            "kwd:public",
+            "kwd:class",
+            "typ:Foo",
+            "pun:{",
+            "com:// hi",
+            "typ:String",
+            "pun:=",
+            "str:\"a\\\"b\"",
+            "pun:;",
+            "pun:}")
+        .inOrder();
+  }
+
+  @Test
+  public void numbers() {
+    assertThat(highlight("java", "0x1F + 1.5e-3"))
+        .containsExactly("lit:0x1F", "pun:+", "lit:1.5e-3")
+        .inOrder();
+  }
+
+  @Test
+  public void python() {
+    assertThat(highlight("py", "# c\nreturn r'a\\'b' + \"\"\"x\n\"y\"\"\""))
+        .containsExactly("com:# c", "kwd:return", "str:r'a\\'b'", "pun:+", "str:\"\"\"x\n\"y\"\"\"")
+        .inOrder();
+  }
+
+  @Test
+  public void shellHashOnlyCommentsAtWordStart() {
+    assertThat(highlight("sh", "echo ${#x} 'a\\' # c"))
+        .containsExactly("pun:{", "pun:}", "str:'a\\'", "com:# c")
+        .inOrder();
+  }
+
+  @Test
+  public void preprocessor() {
+    assertThat(highlight("cc", "  #include <vector>\nint x;"))
+        .containsExactly("kwd:#include", "str:<vector>", "kwd:int", "pun:;")
+        .inOrder();
+  }
+
+  @Test
+  public void goRawString() {
+    assertThat(highlight("go", "s := `a\\`"))
+        .containsExactly("pun::=", "str:`a\\`")
+        .inOrder();
+  }
+
+  @Test
+  public void unterminated() {
+    assertThat(highlight("java", "/* x")).containsExactly("com:/* x");
+    assertThat(highlight("java", "\"x\ny")).containsExactly("str:\"x");
+  }
+
+  @Test
+  public void unknownLanguage() {
+    assertThat(highlighter.highlight("rb", "x")).isNull();
+    assertThat(highlighter.highlight(null, "x")).isNull();
+  }
+
+  @Test
+  public void headerEndsOnItsLine() {
+    assertThat(highlight("cc", "#include <vector\nint x = a > b;"))
+        .containsExactly("kwd:#include", "pun:<", "kwd:int", "pun:=", "pun:>", "pun:;")
+        .inOrder();
+  }
+
+  @Test
+  public void caseInsensitiveLanguage() {
+    assertThat(highlight("JAVA", "int")).containsExactly("kwd:int");
+  }
+
+  @Test
+  public void deepNestingDoesNotOverflow() {
+    String text = "\"" + Strings.repeat("\\\\", 1 << 20);
+    assertThat(highlight("java", text)).containsExactly("str:" + text);
+  }
+
+  @Test
+  public void fallback() {
+    SyntaxHighlighter h = highlighter.orElse((lang, text) -> Highlights.empty());
+    assertThat(h.highlight("rb", "x")).isSameInstanceAs(Highlights.empty());
+  }
+
+  private List<String> highlight(String lang, String text) {
+    Highlights h = highlighter.highlight(lang, text);
+    List<String> result = new ArrayList<>(h.size());
+    for (int i = 0; i < h.size(); i++) {
+      result.add(h.getStyle(i) + ":" + text.substring(h.getStart(i), h.getEnd(i)));
+    }
+    return result;
+  }
+}
@@ -15,8 +15,13 @@
 package com.google.gitiles;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
 
+import com.google.common.net.HttpHeaders;
 import com.google.gitiles.CommitJsonData.Commit;
+import com.google.gitiles.CommitJsonData.Diff;
 import com.google.gitiles.CommitJsonData.Log;
 import com.google.gitiles.DateFormatter.Format;
 import com.google.gson.reflect.TypeToken;
@@ -66,6 +71,67 @@ public class LogServletTest extends ServletTest {
     assertThat(jc1.treeDiff.get(0).newPath).isEqualTo("foo");
   }
 
+  @Test
+  public void treeDiffLogOmitsMergesByDefault() throws Exception {
+    RevCommit merge = createMerge();
+
+    Log response = buildJson(LOG, "/repo/+log/master", "name-status=1&n=1");
+    Commit jc = response.log.get(0);
+    verifyJsonCommit(jc, merge);
+    assertThat(jc.treeDiff).isEmpty();
+  }
+
+  @Test
+  public void treeDiffLogMergeFirstParent() throws Exception {
+    RevCommit merge = createMerge();
+
+    Log response =
+        buildJson(LOG, "/repo/+log/master", "name-status=1&diff-merges=first-parent&n=1");
+    Commit jc = response.log.get(0);
+    verifyJsonCommit(jc, merge);
+    assertThat(jc.treeDiff.stream().map(d -> d.type + " " + d.newPath).collect(toList()))
+        .containsExactly("modify b", "modify c", "add d")
+        .inOrder();
+    assertThat(jc.treeDiff.get(0).oldId).isEqualTo(blobId(merge.getParent(0), "b"));
+    assertThat(jc.treeDiff.get(0).parents).isNull();
+  }
+
+  @Test
+  public void treeDiffLogMergeCombined() throws Exception {
+    RevCommit merge = createMerge();
+
+    for (String mode : new String[] {"combined", "dense-combined"}) {
+      Log response =
+          buildJson(LOG, "/repo/+log/master", "name-status=1&diff-merges=" + mode + "&n=1");
+      Commit jc = response.log.get(0);
+      verifyJsonCommit(jc, merge);
+      assertThat(jc.treeDiff).hasSize(2);
+
+      Diff b = jc.treeDiff.get(0);
+      assertThat(b.type).isNull();
+      assertThat(b.newPath).isEqualTo("b");
+      assertThat(b.newId).isEqualTo(blobId(merge, "b"));
+      assertThat(b.parents).hasSize(2);
+      assertThat(b.parents.get(0).type).isEqualTo("modify");
+      assertThat(b.parents.get(0).oldId).isEqualTo(blobId(merge.getParent(0), "b"));
+      assertThat(b.parents.get(1).type).isEqualTo("modify");
+      assertThat(b.parents.get(1).oldId).isEqualTo(blobId(merge.getParent(1), "b"));
+
+      Diff d = jc.treeDiff.get(1);
+      assertThat(d.newPath).isEqualTo("d");
+      assertThat(d.parents.get(0).type).isEqualTo("add");
+      assertThat(d.parents.get(0).oldMode).isEqualTo(0);
+      assertThat(d.parents.get(1).type).isEqualTo("add");
+    }
+  }
+
+  @Test
+  public void unknownDiffMerges() throws Exception {
+    repo.branch("master").commit().create();
+    buildResponse(
+        "/repo/+log/master", "format=JSON&name-status=1&diff-merges=bogus", SC_BAD_REQUEST);
+  }
+
   @Test
   public void firstParentLog() throws Exception {
     RevCommit p1 = repo.update("master", repo.commit().add("foo", "foo\n"));
@@ -79,6 +145,19 @@ public class LogServletTest extends ServletTest {
     verifyJsonCommit(response.log.get(1), p1);
   }
 
+  @Test
+  public void htmlEtagIgnoresChangeRefs() throws Exception {
+    RevCommit c = repo.branch("master").commit().create();
+    String etag = build("/repo/+log/master").getHeader(HttpHeaders.ETAG);
+    assertThat(etag).isNotNull();
+
+    repo.update("refs/changes/01/1/1", c);
+    assertThat(build("/repo/+log/master").getHeader(HttpHeaders.ETAG)).isEqualTo(etag);
+
+    repo.update("refs/tags/v1", c);
+    assertThat(build("/repo/+log/master").getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+  }
+
   @Test
   public void follow() throws Exception {
     String contents = "contents";
@@ -97,6 +176,73 @@ public class LogServletTest extends ServletTest {
     verifyJsonCommit(response.log.get(1), c1);
   }
 
+  @Test
+  public void selectedFields() throws Exception {
+    RevCommit c1 = repo.branch("master").commit().create();
+    RevCommit c2 = repo.branch("master").commit().create();
+
+    Log response = buildJson(LOG, "/repo/+log/master", "fields=commit,parents");
+    assertThat(response.log).hasSize(2);
+    Commit jc2 = response.log.get(0);
+    assertThat(jc2.commit).isEqualTo(c2.name());
+    assertThat(jc2.parents).containsExactly(c1.name());
+    assertThat(jc2.tree).isNull();
+    assertThat(jc2.author).isNull();
+    assertThat(jc2.committer).isNull();
+    assertThat(jc2.message).isNull();
+    assertThat(response.log.get(1).commit).isEqualTo(c1.name());
+  }
+
+  @Test
+  public void unknownField() throws Exception {
+    repo.branch("master").commit().create();
+    buildResponse("/repo/+log/master", "format=JSON&fields=commit,bogus", SC_BAD_REQUEST);
+  }
+
+  @Test
+  public void compactJson() throws Exception {
+    RevCommit c = repo.branch("master").commit().create();
+
+    String json = buildJsonRaw("/repo/+log/master", "compact&fields=commit");
+    assertThat(json).isEqualTo("{\"log\":[{\"commit\":\"" + c.name() + "\"}]}\n");
+    assertThat(buildJsonRaw("/repo/+log/master", "fields=commit")).contains("\n  ");
+  }
+
+  @Test
+  public void ndjson() throws Exception {
+    RevCommit c1 = repo.branch("master").commit().create();
+    RevCommit c2 = repo.branch("master").commit().create();
+    RevCommit c3 = repo.branch("master").commit().create();
+
+    FakeHttpServletResponse res =
+        buildResponse("/repo/+log/master", "format=JSON&ndjson&fields=commit", SC_OK);
+    assertThat(res.getHeader(HttpHeaders.CONTENT_TYPE)).isEqualTo("application/x-ndjson");
+    assertThat(res.getHeader(HttpHeaders.ETAG)).isNull();
+    assertThat(res.getHeader(HttpHeaders.CACHE_CONTROL)).contains("no-store");
+    assertThat(res.getActualBodyString())
+        .isEqualTo(
+            ")]}'\n"
+                + "{\"commit\":\"" + c3.name() + "\"}\n"
+                + "{\"commit\":\"" + c2.name() + "\"}\n"
+                + "{\"commit\":\"" + c1.name() + "\"}\n");
+  }
+
+  @Test
+  public void ndjsonLimitAndStart() throws Exception {
+    RevCommit c1 = repo.branch("master").commit().create();
+    RevCommit c2 = repo.branch("master").commit().create();
+    repo.branch("master").commit().create();
+
+    FakeHttpServletResponse res =
+        buildResponse(
+            "/repo/+log/master", "format=JSON&ndjson&fields=commit&n=1&s=" + c2.name(), SC_OK);
+    assertThat(res.getActualBodyString())
+        .isEqualTo(
+            ")]}'\n"
+                + "{\"commit\":\"" + c2.name() + "\"}\n"
+                + "{\"next\":\"" + c1.name() + "\"}\n");
+  }
+
   private void verifyJsonCommit(Commit jsonCommit, RevCommit commit) throws Exception {
     repo.getRevWalk().parseBody(commit);
     GitilesAccess access = new TestGitilesAccess(repo.getRepository()).forRequest(null);
@@ -118,4 +264,22 @@ public class LogServletTest extends ServletTest {
     assertThat(jsonCommit.committer.time).isEqualTo(df.format(commit.getCommitterIdent()));
     assertThat(jsonCommit.message).isEqualTo(commit.getFullMessage());
   }
+
+  /**
+   * Create a merge on master of two sides that both changed {@code b}, where the merge also
+   * changes {@code b}, takes {@code c} from the second side and adds {@code d}.
+   */
+  private RevCommit createMerge() throws Exception {
+    RevCommit base =
+        repo.update("master", repo.commit().add("a", "a\n").add("b", "b\n").add("c", "c\n"));
+    RevCommit p1 = repo.commit().parent(base).add("a", "a1\n").add("b", "b1\n").create();
+    RevCommit p2 = repo.commit().parent(base).add("b", "b2\n").add("c", "c2\n").create();
+    return repo.update(
+        "master",
+        repo.commit().parent(p1).parent(p2).add("b", "b3\n").add("c", "c2\n").add("d", "d\n"));
+  }
+
+  private String blobId(RevCommit commit, String path) throws Exception {
+    return repo.get(repo.getRevWalk().parseCommit(commit).getTree(), path).name();
+  }
 }
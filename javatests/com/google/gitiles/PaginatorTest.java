@@ -18,11 +18,13 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.Lists;
+import com.google.common.hash.HashFunction;
 import java.util.List;
 import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
 import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.junit.After;
@@ -158,6 +160,71 @@ public class PaginatorTest {
     assertThat(p.getNextStart()).isNull();
   }
 
+  @Test
+  public void resumeFromCursor() throws Exception {
+    RevCommit a = repo.commit().create();
+    RevCommit b1 = repo.commit().parent(a).create();
+    RevCommit b2 = repo.commit().parent(b1).create();
+    RevCommit c1 = repo.commit().parent(a).create();
+    RevCommit c2 = repo.commit().parent(c1).create();
+    RevCommit m = repo.commit().parent(b2).parent(c2).create();
+    RevCommit d = repo.commit().parent(m).create();
+    HashFunction mac = LogCursor.newMac(null, d, null);
+
+    walk.markStart(walk.parseCommit(d));
+    Paginator p = new Paginator(walk, 3, (ObjectId) null, mac);
+    assertThat(p).containsExactly(d, m, c2).inOrder();
+    String token = p.getNextStartToken();
+    LogCursor cursor = LogCursor.decode(token, mac);
+    assertThat(cursor).isNotNull();
+    assertThat(cursor.getStart()).isEqualTo(c1);
+    assertThat(LogCursor.getStartId(token)).isEqualTo(c1.name());
+    assertThat(LogCursor.decode(token, LogCursor.newMac(null, m, null))).isNull();
+
+    try (RevWalk resumed = new RevWalk(repo.getRepository())) {
+      for (ObjectId id : cursor.getFrontier()) {
+        resumed.markStart(resumed.parseCommit(id));
+      }
+      p = Paginator.resume(resumed, 3, cursor, mac);
+      assertThat(p).isNotNull();
+      assertThat(p).containsExactly(c1, b2, b1).inOrder();
+      assertThat(p.getPreviousStart()).isEqualTo(d);
+      assertThat(p.getNextStart()).isEqualTo(a);
+    }
+  }
+
+  @Test
+  public void resumeFromCursorWithClockSkew() throws Exception {
+    RevCommit z = repo.commit().tick(5).create();
+    RevCommit y = repo.commit().tick(45).parent(z).create();
+    // Older than its parent y, which is only walked again through g.
+    RevCommit g = repo.commit().tick(-40).parent(y).create();
+    RevCommit f = repo.commit().tick(10).parent(g).create();
+    RevCommit d = repo.commit().tick(80).parent(y).parent(f).create();
+    HashFunction mac = LogCursor.newMac(null, d, null);
+
+    walk.markStart(walk.parseCommit(d));
+    Paginator p = new Paginator(walk, 2, (ObjectId) null, mac);
+    assertThat(p).containsExactly(d, y).inOrder();
+    LogCursor cursor = LogCursor.decode(p.getNextStartToken(), mac);
+    assertThat(cursor).isNotNull();
+    assertThat(cursor.getStart()).isEqualTo(f);
+
+    try (RevWalk resumed = new RevWalk(repo.getRepository())) {
+      for (ObjectId id : cursor.getFrontier()) {
+        resumed.markStart(resumed.parseCommit(id));
+      }
+      assertThat(Paginator.resume(resumed, 2, cursor, mac)).isNull();
+    }
+
+    try (RevWalk fromTip = new RevWalk(repo.getRepository())) {
+      fromTip.markStart(fromTip.parseCommit(d));
+      p = new Paginator(fromTip, 2, f, mac);
+      assertThat(p).containsExactly(f, g).inOrder();
+      assertThat(p.getNextStart()).isEqualTo(z);
+    }
+  }
+
   private List<RevCommit> linearCommits(int n) throws Exception {
     checkArgument(n > 0);
     List<RevCommit> commits = Lists.newArrayList();
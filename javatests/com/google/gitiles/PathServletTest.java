@@ -16,16 +16,21 @@ package com.google.gitiles;
 
 import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_PARTIAL_CONTENT;
+import static javax.servlet.http.HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
 
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import com.google.common.net.HttpHeaders;
 import com.google.gitiles.FileJsonData.File;
 import com.google.gitiles.TreeJsonData.Tree;
-import com.google.template.soy.data.SoyListData;
-import com.google.template.soy.data.restricted.StringData;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
 import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.lib.FileMode;
@@ -86,19 +91,62 @@ public class PathServletTest extends ServletTest {
 
     Map<String, ?> data = buildData("/repo/+/master/foo");
     assertThat(data).containsEntry("type", "REGULAR_FILE");
+    assertThat(getBlobData(data)).containsEntry("streamLines", true);
+
+    String html = buildHtml("/repo/+/master/foo");
+    assertThat(countLines(html)).isEqualTo(2);
+    assertThat(html)
+        .contains(
+            "<td class=\"FileContents-lineContents\" id=\"1\">"
+                + "<span class=\"pln\">foo</span></td>");
+    assertThat(html)
+        .contains(
+            "<td class=\"FileContents-lineContents\" id=\"2\">"
+                + "<span class=\"pln\">contents</span></td>");
+  }
 
-    SoyListData lines = (SoyListData) getBlobData(data).get("lines");
-    assertThat(lines.length()).isEqualTo(2);
+  @Test
+  public void fileHtmlEscapesContents() throws Exception {
+    repo.branch("master").commit().add("foo", "<b>&amp;</b>\n").create();
 
-    SoyListData spans = lines.getListData(0);
-    assertThat(spans.length()).isEqualTo(1);
-    assertThat(spans.getMapData(0).get("classes")).isEqualTo(StringData.forValue("pln"));
-    assertThat(spans.getMapData(0).get("text")).isEqualTo(StringData.forValue("foo"));
+    String html = buildHtml("/repo/+/master/foo");
+    assertThat(html).contains("&lt;b&gt;&amp;amp;&lt;/b&gt;");
+    assertThat(html).doesNotContain("<b>");
+  }
 
-    spans = lines.getListData(1);
-    assertThat(spans.length()).isEqualTo(1);
-    assertThat(spans.getMapData(0).get("classes")).isEqualTo(StringData.forValue("pln"));
-    assertThat(spans.getMapData(0).get("text")).isEqualTo(StringData.forValue("contents"));
+  @Test
+  public void fileHtmlNumbersLinesAcrossChunks() throws Exception {
+    StringBuilder content = new StringBuilder();
+    for (int i = 1; i <= 600; i++) {
+      content.append("line\n");
+    }
+    repo.branch("master").commit().add("foo", content.toString()).create();
+
+    String html = buildHtml("/repo/+/master/foo");
+    assertThat(countLines(html)).isEqualTo(600);
+    assertThat(html).contains("<td class=\"FileContents-lineContents\" id=\"257\">");
+    assertThat(html).contains("<td class=\"FileContents-lineContents\" id=\"600\">");
+    assertThat(html).doesNotContain("id=\"601\"");
+  }
+
+  @Test
+  public void fileHtmlGzip() throws Exception {
+    repo.branch("master").commit().add("foo", "foo\ncontents\n").create();
+
+    FakeHttpServletRequest req = FakeHttpServletRequest.newRequest();
+    req.setPathInfo("/repo/+/master/foo");
+    req.setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+    FakeHttpServletResponse res = new FakeHttpServletResponse();
+    servlet.service(req, res);
+    assertThat(res.getStatus()).isEqualTo(SC_OK);
+    assertThat(res.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+    assertThat(res.getHeader(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT_ENCODING);
+
+    String html;
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(res.getActualBody()))) {
+      html = new String(ByteStreams.toByteArray(in), UTF_8);
+    }
+    assertThat(countLines(html)).isEqualTo(2);
   }
 
   @Test
@@ -110,9 +158,7 @@ public class PathServletTest extends ServletTest {
     }
     repo.branch("master").commit().add("bar", contentBuilder.toString()).create();
 
-    Map<String, ?> data = buildData("/repo/+/master/bar");
-    SoyListData lines = (SoyListData) getBlobData(data).get("lines");
-    assertThat(lines.length()).isEqualTo(MAX_LINE_COUNT - 1);
+    assertThat(countLines(buildHtml("/repo/+/master/bar"))).isEqualTo(MAX_LINE_COUNT - 1);
   }
 
   @Test
@@ -125,7 +171,7 @@ public class PathServletTest extends ServletTest {
     repo.branch("master").commit().add("largebar", contentBuilder.toString()).create();
 
     Map<String, ?> data = buildData("/repo/+/master/largebar");
-    SoyListData lines = (SoyListData) getBlobData(data).get("lines");
+    List<?> lines = (List<?>) getBlobData(data).get("lines");
     assertThat(lines).isNull();
   }
 
@@ -204,6 +250,99 @@ public class PathServletTest extends ServletTest {
     assertThat(text).isEqualTo("contents");
   }
 
+  @Test
+  public void blobRaw() throws Exception {
+    RevBlob blob = repo.blob("0123456789");
+    repo.branch("master").commit().add("dir/foo@bar.sh", blob).create();
+
+    FakeHttpServletResponse res = buildRaw("/repo/+/master/dir/foo@bar.sh", null, null, SC_OK);
+    assertThat(res.getActualBodyString()).isEqualTo("0123456789");
+    assertThat(res.getHeader(HttpHeaders.CONTENT_TYPE)).isEqualTo("application/octet-stream");
+    assertThat(res.getHeader(HttpHeaders.CONTENT_LENGTH)).isEqualTo("10");
+    assertThat(res.getHeader(HttpHeaders.CONTENT_DISPOSITION))
+        .isEqualTo("attachment; filename=\"foo_bar.sh\"");
+    assertThat(res.getHeader(HttpHeaders.X_CONTENT_TYPE_OPTIONS)).isEqualTo("nosniff");
+    assertThat(res.getHeader(HttpHeaders.ETAG)).isEqualTo('"' + blob.name() + '"');
+    assertThat(res.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+    assertThat(res.getHeader(PathServlet.MODE_HEADER)).isEqualTo("100644");
+  }
+
+  @Test
+  public void blobRawRange() throws Exception {
+    RevBlob blob = repo.blob("0123456789");
+    repo.branch("master").commit().add("foo", blob).create();
+    String etag = '"' + blob.name() + '"';
+
+    FakeHttpServletResponse res =
+        buildRaw("/repo/+/master/foo", "bytes=2-4", null, SC_PARTIAL_CONTENT);
+    assertThat(res.getActualBodyString()).isEqualTo("234");
+    assertThat(res.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-4/10");
+    assertThat(res.getHeader(HttpHeaders.CONTENT_LENGTH)).isEqualTo("3");
+
+    res = buildRaw("/repo/+/master/foo", "bytes=-3", etag, SC_PARTIAL_CONTENT);
+    assertThat(res.getActualBodyString()).isEqualTo("789");
+
+    res = buildRaw("/repo/+/master/foo", "bytes=2-4", "\"stale\"", SC_OK);
+    assertThat(res.getActualBodyString()).isEqualTo("0123456789");
+
+    res = buildRaw("/repo/+/master/foo", "bytes=1-2,4-5", null, SC_OK);
+    assertThat(res.getActualBodyString()).isEqualTo("0123456789");
+
+    res = buildRaw("/repo/+/master/foo", "bytes=10-", null, SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    assertThat(res.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+    assertThat(res.getActualBodyString()).isEmpty();
+  }
+
+  @Test
+  public void blobRawNotModified() throws Exception {
+    RevBlob blob = repo.blob("contents");
+    repo.branch("master").commit().add("foo", blob).create();
+    repo.branch("master").commit().add("foo", blob).add("bar", "other").create();
+
+    FakeHttpServletRequest req = FakeHttpServletRequest.newRequest();
+    req.setPathInfo("/repo/+/master/foo");
+    req.setQueryString("format=raw");
+    req.setHeader(HttpHeaders.IF_NONE_MATCH, '"' + blob.name() + '"');
+    FakeHttpServletResponse res = new FakeHttpServletResponse();
+    servlet.service(req, res);
+    assertThat(res.getStatus()).isEqualTo(SC_NOT_MODIFIED);
+    assertThat(res.getActualBodyString()).isEmpty();
+  }
+
+  @Test
+  public void fileHtmlNotModified() throws Exception {
+    repo.branch("master").commit().add("foo", "contents").create();
+    String etag = build("/repo/+/master/foo").getHeader(HttpHeaders.ETAG);
+    assertThat(etag).isNotNull();
+
+    FakeHttpServletResponse res = buildConditional("/repo/+/master/foo", etag);
+    assertThat(res.getStatus()).isEqualTo(SC_NOT_MODIFIED);
+    assertThat(res.getHeader(HttpHeaders.ETAG)).isEqualTo(etag);
+    assertThat(res.getActualBodyString()).isEmpty();
+
+    res = buildConditional("/repo/+/master/foo", "\"other\", W/" + etag);
+    assertThat(res.getStatus()).isEqualTo(SC_NOT_MODIFIED);
+
+    repo.branch("master").commit().add("foo", "contents").add("bar", "bar").create();
+    res = buildConditional("/repo/+/master/foo", etag);
+    assertThat(res.getStatus()).isEqualTo(SC_OK);
+    assertThat(res.getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+    assertThat(res.getActualBodyString()).contains("contents");
+  }
+
+  @Test
+  public void etagDependsOnFormat() throws Exception {
+    repo.branch("master").commit().add("foo", "contents").create();
+    assertThat(buildText("/repo/+/master/foo").getHeader(HttpHeaders.ETAG))
+        .isNotEqualTo(build("/repo/+/master/foo").getHeader(HttpHeaders.ETAG));
+  }
+
+  @Test
+  public void treeRaw() throws Exception {
+    repo.branch("master").commit().add("foo/bar", "contents").create();
+    assertNotFound("/repo/+/master/foo", "format=raw");
+  }
+
   @Test
   public void fileJson() throws Exception {
     RevBlob blob = repo.blob("contents");
@@ -410,6 +549,17 @@ public class PathServletTest extends ServletTest {
     assertThat(res.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN)).isEqualTo(null);
   }
 
+  private static int countLines(String html) {
+    String marker = "class=\"u-pre u-monospace FileContents-line\"";
+    int n = 0;
+    int i = html.indexOf(marker);
+    while (i >= 0) {
+      n++;
+      i = html.indexOf(marker, i + marker.length());
+    }
+    return n;
+  }
+
   private Map<String, ?> getBlobData(Map<String, ?> data) {
     return ((Map<String, Map<String, ?>>) data).get("data");
   }
@@ -418,6 +568,33 @@ public class PathServletTest extends ServletTest {
     return ((Map<String, List<Map<String, ?>>>) data.get("data")).get("entries");
   }
 
+  private FakeHttpServletResponse buildConditional(String path, String ifNoneMatch)
+      throws Exception {
+    FakeHttpServletRequest req = FakeHttpServletRequest.newRequest();
+    req.setPathInfo(path);
+    req.setHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+    FakeHttpServletResponse res = new FakeHttpServletResponse();
+    servlet.service(req, res);
+    return res;
+  }
+
+  private FakeHttpServletResponse buildRaw(
+      String path, String range, String ifRange, int expectedStatus) throws Exception {
+    FakeHttpServletRequest req = FakeHttpServletRequest.newRequest();
+    req.setPathInfo(path);
+    req.setQueryString("format=raw");
+    if (range != null) {
+      req.setHeader(HttpHeaders.RANGE, range);
+    }
+    if (ifRange != null) {
+      req.setHeader(HttpHeaders.IF_RANGE, ifRange);
+    }
+    FakeHttpServletResponse res = new FakeHttpServletResponse();
+    servlet.service(req, res);
+    assertThat(res.getStatus()).isEqualTo(expectedStatus);
+    return res;
+  }
+
   private String buildBlob(String path, String expectedMode) throws Exception {
     FakeHttpServletResponse res = buildText(path);
     assertThat(res.getHeader(PathServlet.MODE_HEADER)).isEqualTo(expectedMode);
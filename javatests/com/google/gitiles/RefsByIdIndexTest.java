@@ -0,0 +1,78 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
+
+import java.util.List;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RefsByIdIndexTest {
+  private TestRepository<DfsRepository> repo;
+  private RefsByIdCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("repo")));
+    cache = new RefsByIdCache();
+  }
+
+  @Test
+  public void branchesAndPeeledTags() throws Exception {
+    RevCommit c = repo.branch("refs/heads/master").commit().create();
+    repo.update("refs/heads/dev", c);
+    repo.update("refs/tags/light", c);
+    repo.update("refs/tags/annotated", repo.tag("annotated", c));
+    repo.update("refs/changes/01/1/1", c);
+
+    RefsByIdIndex index = cache.get(repo.getRepository().getRefDatabase());
+    assertThat(names(index.get(c, Constants.R_HEADS)))
+        .containsExactly("refs/heads/dev", "refs/heads/master")
+        .inOrder();
+    assertThat(names(index.get(c, Constants.R_TAGS)))
+        .containsExactly("refs/tags/annotated", "refs/tags/light")
+        .inOrder();
+    assertThat(index.get(c, "refs/changes/")).isEmpty();
+  }
+
+  @Test
+  public void sharedUntilRefsChange() throws Exception {
+    RevCommit c1 = repo.branch("refs/heads/master").commit().create();
+    RefsByIdIndex index = cache.get(repo.getRepository().getRefDatabase());
+    assertThat(cache.get(repo.getRepository().getRefDatabase())).isSameInstanceAs(index);
+
+    RevCommit c2 = repo.branch("refs/heads/master").commit().parent(c1).create();
+    RefsByIdIndex updated = cache.get(repo.getRepository().getRefDatabase());
+    assertThat(updated).isNotSameInstanceAs(index);
+    assertThat(updated.get(c1, Constants.R_HEADS)).isEmpty();
+    assertThat(names(updated.get(c2, Constants.R_HEADS))).containsExactly("refs/heads/master");
+  }
+
+  private static List<String> names(List<Ref> refs) {
+    return refs.stream().map(Ref::getName).collect(toList());
+  }
+}
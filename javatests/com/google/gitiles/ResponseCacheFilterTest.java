@@ -0,0 +1,152 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+
+import com.google.common.net.HttpHeaders;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ResponseCacheFilterTest {
+  private TestRepository<DfsRepository> repo;
+  private ResponseCacheFilter filter;
+  private RevCommit commit;
+  private int calls;
+  private int status;
+  private String origin;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("repo")));
+    filter = new ResponseCacheFilter(new TestGitilesAccess(repo.getRepository()));
+    commit = repo.branch("master").commit().add("foo", "contents").create();
+    status = SC_OK;
+  }
+
+  @Test
+  public void cachesResponseForCommitId() throws Exception {
+    String path = "/repo/+/" + commit.name() + "/foo";
+    FakeHttpServletResponse res = service(path, null);
+    assertThat(res.getActualBodyString()).isEqualTo("body 1");
+
+    res = service(path, null);
+    assertThat(calls).isEqualTo(1);
+    assertThat(res.getStatus()).isEqualTo(SC_OK);
+    assertThat(res.getActualBodyString()).isEqualTo("body 1");
+    assertThat(res.getHeader(HttpHeaders.ETAG)).isEqualTo("\"tag\"");
+    assertThat(res.getHeader(HttpHeaders.CONTENT_TYPE)).isEqualTo("text/plain");
+  }
+
+  @Test
+  public void answersConditionalRequestFromCache() throws Exception {
+    String path = "/repo/+/" + commit.name() + "/foo";
+    service(path, null);
+    FakeHttpServletResponse res = service(path, "\"tag\"");
+    assertThat(calls).isEqualTo(1);
+    assertThat(res.getStatus()).isEqualTo(SC_NOT_MODIFIED);
+    assertThat(res.getActualBodyString()).isEmpty();
+  }
+
+  @Test
+  public void keyedOnFormat() throws Exception {
+    String path = "/repo/+/" + commit.name() + "/foo";
+    service(path, null);
+    service(path + "?format=TEXT", null);
+    assertThat(calls).isEqualTo(2);
+  }
+
+  @Test
+  public void doesNotCacheBranchName() throws Exception {
+    service("/repo/+/master/foo", null);
+    service("/repo/+/master/foo", null);
+    assertThat(calls).isEqualTo(2);
+  }
+
+  @Test
+  public void doesNotCacheStreamingLog() throws Exception {
+    String path = "/repo/+log/" + commit.name() + "?format=JSON&ndjson";
+    service(path, null);
+    service(path, null);
+    assertThat(calls).isEqualTo(2);
+  }
+
+  @Test
+  public void doesNotCacheErrors() throws Exception {
+    status = SC_NOT_FOUND;
+    String path = "/repo/+/" + commit.name() + "/foo";
+    service(path, null);
+    service(path, null);
+    assertThat(calls).isEqualTo(2);
+  }
+
+  @Test
+  public void doesNotReplayCorsHeaders() throws Exception {
+    String path = "/repo/+/" + commit.name() + "/foo?format=JSON";
+    origin = "https://a.example.com";
+    FakeHttpServletResponse res = service(path, null);
+    assertThat(res.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN)).isEqualTo(origin);
+    assertThat(res.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS)).isEqualTo("true");
+
+    // Without gitiles.allowOriginRegex, any origin is allowed without credentials.
+    origin = "https://b.example.com";
+    res = service(path, null);
+    assertThat(calls).isEqualTo(1);
+    assertThat(res.getActualBodyString()).isEqualTo("body 1");
+    assertThat(res.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN)).isEqualTo("*");
+    assertThat(res.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS)).isNull();
+  }
+
+  private FakeHttpServletResponse service(String pathAndQuery, String ifNoneMatch)
+      throws Exception {
+    FakeHttpServletRequest req = TestViewFilter.service(repo, pathAndQuery).getRequest();
+    if (ifNoneMatch != null) {
+      req.setHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+    }
+    if (origin != null) {
+      req.setHeader(HttpHeaders.ORIGIN, origin);
+    }
+    FakeHttpServletResponse res = new FakeHttpServletResponse();
+    FilterChain chain =
+        (request, response) -> {
+          HttpServletResponse r = (HttpServletResponse) response;
+          calls++;
+          r.setContentType("text/plain");
+          r.setHeader(HttpHeaders.ETAG, "\"tag\"");
+          if (origin != null) {
+            r.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, origin);
+            r.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+          }
+          r.setStatus(status);
+          r.getOutputStream().write(("body " + calls).getBytes(UTF_8));
+        };
+    filter.doFilter(req, res, chain);
+    return res;
+  }
+}
@@ -110,7 +110,7 @@ public class ServletTest {
     return res;
   }
 
-  private String buildJsonRaw(String path, @Nullable String queryString) throws Exception {
+  protected String buildJsonRaw(String path, @Nullable String queryString) throws Exception {
     String fmt = "format=JSON";
     queryString = Strings.isNullOrEmpty(queryString) ? fmt : fmt + "&" + queryString;
     FakeHttpServletResponse res = buildResponse(path, queryString, SC_OK);
@@ -15,14 +15,19 @@
 package com.google.gitiles;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
 
+import com.google.common.cache.CacheBuilder;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
 import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
 import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.TagBuilder;
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -30,13 +35,17 @@ import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 /** Unit tests for {@link TimeCache}. */
 @RunWith(JUnit4.class)
 public class TimeCacheTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
   private TestRepository<DfsRepository> repo;
   private RevWalk walk;
   private TimeCache cache;
@@ -143,4 +152,93 @@ public class TimeCacheTest {
     assertThat(getTime(tag)).isEqualTo(start + 2);
     assertThat(getTime(tagTagId)).isEqualTo(start + 2);
   }
+
+  @Test
+  public void tagsByTime() throws Exception {
+    RevCommit c1 = repo.commit().create();
+    RevCommit c2 = repo.commit().create();
+    repo.tick(1);
+    repo.update("refs/tags/b", repo.tag("b", c1));
+    repo.update("refs/tags/a", c2);
+    repo.update("refs/tags/e", c1);
+    repo.update("refs/tags/c", c1);
+    repo.update("refs/tags/d", repo.tree());
+
+    assertThat(tagsByTime(walk, 0))
+        .containsExactly("refs/tags/b", "refs/tags/a", "refs/tags/c", "refs/tags/e", "refs/tags/d")
+        .inOrder();
+    assertThat(tagsByTime(walk, 2)).containsExactly("refs/tags/b", "refs/tags/a").inOrder();
+  }
+
+  @Test
+  public void tagsByTimeReadsOnlyChangedTags() throws Exception {
+    // Don't cache times by ID, so that only the tag index can avoid reading objects.
+    cache = new TimeCache(CacheBuilder.newBuilder().maximumSize(0));
+    RevCommit c1 = repo.commit().create();
+    RevCommit c2 = repo.commit().create();
+    repo.update("refs/tags/old", c1);
+    repo.update("refs/tags/new", c2);
+    assertThat(tagsByTime(walk, 0)).containsExactly("refs/tags/new", "refs/tags/old").inOrder();
+
+    try (RevWalk empty =
+        new RevWalk(new InMemoryRepository(new DfsRepositoryDescription("empty")))) {
+      assertThat(tagsByTime(empty, 0))
+          .containsExactly("refs/tags/new", "refs/tags/old")
+          .inOrder();
+    }
+
+    RevCommit c3 = repo.commit().create();
+    repo.update("refs/tags/old", c3);
+    assertThat(tagsByTime(walk, 0))
+        .containsExactly("refs/tags/old", "refs/tags/new")
+        .inOrder();
+  }
+
+  @Test
+  public void tagsByTimeReadsStoredTimesAfterRestart() throws Exception {
+    Path dir = tmp.newFolder("tags").toPath();
+    cache =
+        new TimeCache(
+            CacheBuilder.newBuilder().maximumSize(0),
+            TimeCache.defaultTagIndexBuilder(),
+            new FileTagTimeStore(dir));
+    RevCommit c1 = repo.commit().create();
+    RevCommit c2 = repo.commit().create();
+    repo.update("refs/tags/old", c1);
+    repo.update("refs/tags/new", repo.tag("new", c2));
+    assertThat(tagsByTime(walk, 0)).containsExactly("refs/tags/new", "refs/tags/old").inOrder();
+
+    cache =
+        new TimeCache(
+            CacheBuilder.newBuilder().maximumSize(0),
+            TimeCache.defaultTagIndexBuilder(),
+            new FileTagTimeStore(dir));
+    try (RevWalk empty =
+        new RevWalk(new InMemoryRepository(new DfsRepositoryDescription("empty")))) {
+      assertThat(tagsByTime(empty, 0))
+          .containsExactly("refs/tags/new", "refs/tags/old")
+          .inOrder();
+    }
+  }
+
+  @Test
+  public void tagsByTimeStoresTimesOnlyWhenLoadingIndex() throws Exception {
+    FileTagTimeStore store = new FileTagTimeStore(tmp.newFolder("tags").toPath());
+    cache = new TimeCache(TimeCache.defaultBuilder(), TimeCache.defaultTagIndexBuilder(), store);
+    String key = repo.getRepository().getIdentifier();
+    RevCommit c1 = repo.commit().create();
+    repo.update("refs/tags/old", c1);
+    assertThat(tagsByTime(walk, 0)).containsExactly("refs/tags/old");
+    assertThat(store.get(key)).containsExactly(c1, (long) c1.getCommitTime());
+
+    RevCommit c2 = repo.commit().create();
+    repo.update("refs/tags/new", c2);
+    assertThat(tagsByTime(walk, 0)).containsExactly("refs/tags/new", "refs/tags/old").inOrder();
+    assertThat(store.get(key)).containsExactly(c1, (long) c1.getCommitTime());
+  }
+
+  private List<String> tagsByTime(RevWalk walk, int limit) throws Exception {
+    List<Ref> tags = cache.getTagsByTime(repo.getRepository(), walk, limit);
+    return tags.stream().map(Ref::getName).collect(toList());
+  }
 }
@@ -18,11 +18,14 @@ import static com.google.common.truth.Truth.assertThat;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.resolver.ServiceNotAuthorizedException;
@@ -37,7 +40,7 @@ import org.junit.runners.JUnit4;
 public class VisibilityCacheTest {
 
   private InMemoryRepository repo;
-  private GitilesAccess access = new FakeGitilesAccess();
+  private GitilesAccess access = new FakeGitilesAccess("Test", "Test");
 
   private RevCommit baseCommit;
   private RevCommit commit1;
@@ -119,7 +122,77 @@ public class VisibilityCacheTest {
     assertThat(visibilityCache.isVisible(repo, walk, access, commitB.getId(), known)).isTrue();
   }
 
+  @Test
+  public void negativeResultInvalidatedByRefUpdate() throws Exception {
+    ObjectId[] known = new ObjectId[0];
+    assertThat(visibilityCache.isVisible(repo, walk, access, commitB.getId(), known)).isFalse();
+    assertThat(visibilityCache.getNegativeCache().size()).isEqualTo(1);
+
+    try (TestRepository<InMemoryRepository> git = new TestRepository<>(repo)) {
+      git.update("refs/heads/feature", commitC);
+    }
+    // A later request, with its own walk, sees the new refs.
+    try (RevWalk newWalk = new RevWalk(repo)) {
+      assertThat(visibilityCache.isVisible(repo, newWalk, access, commitB.getId(), known))
+          .isTrue();
+    }
+    assertThat(visibilityCache.getCache().size()).isEqualTo(1);
+    assertThat(visibilityCache.getNegativeCache().size()).isEqualTo(0);
+  }
+
+  @Test
+  public void refsSnapshotComputedOncePerWalk() throws Exception {
+    AtomicInteger snapshots = new AtomicInteger();
+    visibilityCache =
+        new VisibilityCache() {
+          @Override
+          protected ObjectId getRefsSnapshot(Repository r) throws IOException {
+            snapshots.incrementAndGet();
+            return super.getRefsSnapshot(r);
+          }
+        };
+    ObjectId[] known = new ObjectId[0];
+    assertThat(visibilityCache.isVisible(repo, walk, access, commit1.getId(), known)).isTrue();
+    assertThat(visibilityCache.isVisible(repo, walk, access, commit1.getId(), known)).isTrue();
+    assertThat(visibilityCache.isVisible(repo, walk, access, commitB.getId(), known)).isFalse();
+    assertThat(visibilityCache.isVisible(repo, walk, access, commitB.getId(), known)).isFalse();
+    assertThat(snapshots.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void positiveResultSurvivesRefUpdate() throws Exception {
+    ObjectId[] known = new ObjectId[0];
+    assertThat(visibilityCache.isVisible(repo, walk, access, commit1.getId(), known)).isTrue();
+
+    RefUpdate ru = repo.updateRef("refs/heads/master");
+    ru.setForceUpdate(true);
+    assertThat(ru.delete()).isEqualTo(RefUpdate.Result.FORCED);
+    assertThat(visibilityCache.isVisible(repo, walk, access, commit1.getId(), known)).isTrue();
+    assertThat(visibilityCache.getCache().size()).isEqualTo(1);
+  }
+
+  @Test
+  public void sharedWithinAclClass() throws Exception {
+    ObjectId[] known = new ObjectId[0];
+    GitilesAccess other = new FakeGitilesAccess("Other", "Test");
+    assertThat(visibilityCache.isVisible(repo, walk, access, commit1.getId(), known)).isTrue();
+    assertThat(visibilityCache.isVisible(repo, walk, other, commit1.getId(), known)).isTrue();
+    assertThat(visibilityCache.getCache().size()).isEqualTo(1);
+
+    GitilesAccess otherClass = new FakeGitilesAccess("Other", "Other");
+    assertThat(visibilityCache.isVisible(repo, walk, otherClass, commit1.getId(), known)).isTrue();
+    assertThat(visibilityCache.getCache().size()).isEqualTo(2);
+  }
+
   private static class FakeGitilesAccess implements GitilesAccess {
+    private final String user;
+    private final String aclClass;
+
+    FakeGitilesAccess(String user, String aclClass) {
+      this.user = user;
+      this.aclClass = aclClass;
+    }
+
     @Override
     public Map<String, RepositoryDescription> listRepositories(String prefix, Set<String> branches)
         throws ServiceNotEnabledException, ServiceNotAuthorizedException, IOException {
@@ -128,7 +201,12 @@ public class VisibilityCacheTest {
 
     @Override
     public Object getUserKey() {
-      return "Test";
+      return user;
+    }
+
+    @Override
+    public Object getAclClassKey() {
+      return aclClass;
     }
 
     @Override
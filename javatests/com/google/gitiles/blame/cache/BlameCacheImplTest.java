@@ -0,0 +1,102 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles.blame.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BlameCacheImplTest {
+  private InMemoryRepository repo;
+  private TestRepository<InMemoryRepository> git;
+  private BlameCacheImpl cache;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription());
+    git = new TestRepository<>(repo);
+    cache = new BlameCacheImpl();
+  }
+
+  @Test
+  public void incrementalBlameMatchesFullBlame() throws Exception {
+    String[] versions = {
+      "a\nb\nc\nd\n",
+      "a\nB\nc\nd\ne\n",
+      "x\na\nB\nd\ne\n",
+      "x\na\nB\nd\ne\nf\ng\nh\n",
+      "a\nB\nq\ne\nf\nh",
+      "a\nB\nq\ne\nf\nh\n",
+    };
+    RevCommit parent = null;
+    for (String contents : versions) {
+      TestRepository<InMemoryRepository>.CommitBuilder b = git.commit().tick(10);
+      if (parent != null) {
+        b.parent(parent);
+      }
+      RevCommit c = b.add("foo", contents).create();
+      // Each version's blame is computed with the previous version's blame in the cache.
+      assertThat(cache.get(repo, c, "foo").toString())
+          .isEqualTo(BlameCacheImpl.loadBlame(new BlameCacheImpl.Key(c, "foo"), repo).toString());
+      parent = c;
+    }
+  }
+
+  @Test
+  public void mergeUsesFullBlame() throws Exception {
+    RevCommit base = git.commit().add("foo", "a\nb\n").create();
+    RevCommit left = git.commit().tick(10).parent(base).add("foo", "a\nb\nc\n").create();
+    RevCommit right = git.commit().tick(10).parent(base).add("foo", "z\na\nb\n").create();
+    RevCommit merge =
+        git.commit().tick(10).parent(left).parent(right).add("foo", "z\na\nb\nc\n").create();
+
+    cache.get(repo, left, "foo");
+    assertThat(cache.get(repo, merge, "foo").toString())
+        .isEqualTo(
+            BlameCacheImpl.loadBlame(new BlameCacheImpl.Key(merge, "foo"), repo).toString());
+  }
+
+  @Test
+  public void findLastCommitSkipsUntouchedCommits() throws Exception {
+    RevCommit c1 = git.commit().add("foo", "a\n").create();
+    RevCommit c2 = git.commit().tick(10).parent(c1).add("bar", "b\n").create();
+    RevCommit c3 = git.commit().tick(10).parent(c2).add("bar", "c\n").create();
+
+    assertThat(cache.findLastCommit(repo, c3, "foo")).isEqualTo(c1);
+    assertThat(cache.findLastCommit(repo, c3, "bar")).isEqualTo(c3);
+    assertThat(cache.findLastCommit(repo, c3, "baz")).isNull();
+    assertThat(cache.findLastCommit(repo, c3, "baz")).isNull();
+  }
+
+  @Test
+  public void findLastCommitReusesAncestorResult() throws Exception {
+    RevCommit c1 = git.commit().add("foo", "a\n").create();
+    RevCommit c2 = git.commit().tick(10).parent(c1).add("bar", "b\n").create();
+    RevCommit c3 = git.commit().tick(10).parent(c2).add("bar", "c\n").create();
+
+    assertThat(cache.findLastCommit(repo, c2, "foo")).isEqualTo(c1);
+    // Replace the cached answer for c2 to show that c3 does not walk past it.
+    cache.getLastCommitCache().put(new BlameCacheImpl.Key(c2, "foo"), c2);
+    assertThat(cache.findLastCommit(repo, c3, "foo")).isEqualTo(c2);
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles.blame.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CompactRegionListTest {
+  private static final ObjectId COMMIT1 =
+      ObjectId.fromString("1111111111111111111111111111111111111111");
+  private static final ObjectId COMMIT2 =
+      ObjectId.fromString("2222222222222222222222222222222222222222");
+  private static final PersonIdent AUTHOR1 =
+      new PersonIdent("J. Author", "jauthor@example.com", 1400000000000L, -420);
+  private static final PersonIdent AUTHOR2 =
+      new PersonIdent("A. U. Thor", "author@example.com", 1500000000000L, 60);
+
+  @Test
+  public void roundTrip() {
+    List<Region> regions =
+        ImmutableList.of(
+            new Region("foo", COMMIT1, AUTHOR1, 0, 3),
+            new Region("bar", COMMIT2, AUTHOR2, 3, 4),
+            new Region(null, null, null, 4, 6),
+            new Region("foo", COMMIT1, AUTHOR1, 6, 10));
+    List<Region> compact = CompactRegionList.copyOf(regions);
+
+    assertThat(compact.toString()).isEqualTo(regions.toString());
+    for (int i = 0; i < regions.size(); i++) {
+      assertThat(compact.get(i).getSourceAuthor()).isEqualTo(regions.get(i).getSourceAuthor());
+    }
+    assertThat(CompactRegionList.copyOf(compact)).isSameInstanceAs(compact);
+  }
+
+  @Test
+  public void returnsFreshRegions() {
+    List<Region> compact =
+        CompactRegionList.copyOf(ImmutableList.of(new Region("foo", COMMIT1, AUTHOR1, 0, 3)));
+    compact.get(0).setStart(10);
+    assertThat(compact.get(0).getStart()).isEqualTo(0);
+  }
+
+  @Test
+  public void empty() {
+    CompactRegionList compact = CompactRegionList.copyOf(ImmutableList.of());
+    assertThat(compact).isEmpty();
+    assertThat(compact.getWeight()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void weightGrowsWithRegionsNotRepeatedCommits() {
+    ImmutableList.Builder<Region> small = ImmutableList.builder();
+    ImmutableList.Builder<Region> large = ImmutableList.builder();
+    for (int i = 0; i < 100; i++) {
+      PersonIdent author = i % 2 == 0 ? AUTHOR1 : AUTHOR2;
+      ObjectId commit = i % 2 == 0 ? COMMIT1 : COMMIT2;
+      Region r = new Region("foo", commit, author, i, i + 1);
+      if (i < 10) {
+        small.add(r);
+      }
+      large.add(r);
+    }
+    long smallWeight = CompactRegionList.copyOf(small.build()).getWeight();
+    long largeWeight = CompactRegionList.copyOf(large.build()).getWeight();
+
+    // Each additional region costs three ints; commits, authors and paths are shared.
+    assertThat(largeWeight - smallWeight).isEqualTo(90 * 3 * 4);
+  }
+}
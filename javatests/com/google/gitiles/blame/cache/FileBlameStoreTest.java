@@ -0,0 +1,120 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gitiles.blame.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FileBlameStoreTest {
+  private static final ObjectId COMMIT1 =
+      ObjectId.fromString("0123456789abcdef0123456789abcdef01234567");
+  private static final ObjectId COMMIT2 =
+      ObjectId.fromString("123456789abcdef0123456789abcdef012345678");
+  private static final PersonIdent AUTHOR =
+      new PersonIdent("J. Author", "jauthor@example.com", 1234567890000L, -420);
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path dir;
+  private List<Region> regions;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = tmp.newFolder("blame").toPath();
+    regions =
+        ImmutableList.of(
+            new Region("foo", COMMIT1, AUTHOR, 0, 3),
+            new Region(null, null, null, 3, 4),
+            new Region("bar", COMMIT2, AUTHOR, 4, 9));
+  }
+
+  @Test
+  public void roundTripAcrossRestart() throws Exception {
+    BlameCacheImpl.Key key = new BlameCacheImpl.Key(COMMIT2, "foo");
+    new FileBlameStore(dir, 1 << 20).put(key, regions);
+
+    FileBlameStore store = new FileBlameStore(dir, 1 << 20);
+    assertThat(store.size()).isEqualTo(1);
+    List<Region> result = store.get(key);
+    assertThat(result).hasSize(3);
+    assertSameRegion(result.get(0), regions.get(0));
+    assertSameRegion(result.get(1), regions.get(1));
+    assertSameRegion(result.get(2), regions.get(2));
+    assertThat(result.get(2).getStart()).isEqualTo(4);
+
+    assertThat(store.get(new BlameCacheImpl.Key(COMMIT1, "foo"))).isNull();
+  }
+
+  @Test
+  public void corruptEntryIsDiscarded() throws Exception {
+    BlameCacheImpl.Key key = new BlameCacheImpl.Key(COMMIT2, "foo");
+    FileBlameStore store = new FileBlameStore(dir, 1 << 20);
+    store.put(key, regions);
+
+    Path file;
+    try (Stream<Path> files = Files.list(dir)) {
+      file = files.findFirst().get();
+    }
+    byte[] data = Files.readAllBytes(file);
+    data[data.length / 2] ^= 1;
+    Files.write(file, data);
+
+    assertThat(store.get(key)).isNull();
+    assertThat(store.size()).isEqualTo(0);
+    assertThat(Files.exists(file)).isFalse();
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() throws Exception {
+    BlameCacheImpl.Key key1 = new BlameCacheImpl.Key(COMMIT1, "foo");
+    BlameCacheImpl.Key key2 = new BlameCacheImpl.Key(COMMIT1, "bar");
+    BlameCacheImpl.Key key3 = new BlameCacheImpl.Key(COMMIT1, "baz");
+    FileBlameStore unbounded = new FileBlameStore(tmp.newFolder("size").toPath(), 1 << 20);
+    unbounded.put(key1, regions);
+    long entrySize = unbounded.getTotalBytes();
+
+    FileBlameStore store = new FileBlameStore(dir, 2 * entrySize + entrySize / 2);
+    store.put(key1, regions);
+    store.put(key2, regions);
+    assertThat(store.get(key1)).isNotNull();
+    store.put(key3, regions);
+
+    assertThat(store.size()).isEqualTo(2);
+    assertThat(store.get(key1)).isNotNull();
+    assertThat(store.get(key2)).isNull();
+    assertThat(store.get(key3)).isNotNull();
+  }
+
+  private static void assertSameRegion(Region actual, Region expected) {
+    assertThat(actual.getCount()).isEqualTo(expected.getCount());
+    assertThat(actual.getSourcePath()).isEqualTo(expected.getSourcePath());
+    assertThat(actual.getSourceCommit()).isEqualTo(expected.getSourceCommit());
+    assertThat(actual.getSourceAuthor()).isEqualTo(expected.getSourceAuthor());
+  }
+}